@@ -0,0 +1,13 @@
+-- Lease that lets only one node at a time run the expired token sweep.
+CREATE TABLE maintenance_leases
+(
+    name       VARCHAR(255) NOT NULL,
+    owner      VARCHAR(255),
+    expires_at BIGINT,
+    PRIMARY KEY (name)
+) ENGINE = InnoDB;
+
+-- The sweep deletes by expiry, this keeps it from scanning all users.
+ALTER TABLE users
+    ADD INDEX users_token_expired_at_idx (token_expired_at),
+    ALGORITHM = INPLACE, LOCK = NONE;
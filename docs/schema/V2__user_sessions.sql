@@ -0,0 +1,23 @@
+-- One row per login, instead of the single token column on users.
+CREATE TABLE user_sessions
+(
+    token      VARCHAR(255) NOT NULL,
+    username   VARCHAR(255),
+    expired_at BIGINT,
+    PRIMARY KEY (token),
+    INDEX user_sessions_username_idx (username),
+    INDEX user_sessions_expired_at_idx (expired_at)
+) ENGINE = InnoDB;
+
+-- Tokens that are still valid keep working after the upgrade.
+INSERT INTO user_sessions (token, username, expired_at)
+SELECT token, username, token_expired_at
+FROM users
+WHERE token IS NOT NULL
+  AND token_expired_at >= UNIX_TIMESTAMP() * 1000;
+
+-- Run only once no node with the previous version is left, it still writes users.token.
+ALTER TABLE users
+    DROP INDEX users_token_expired_at_idx,
+    DROP COLUMN token,
+    DROP COLUMN token_expired_at;
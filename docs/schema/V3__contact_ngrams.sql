@@ -0,0 +1,11 @@
+-- Trigram index for contact name, email and phone search.
+CREATE TABLE contact_ngrams
+(
+    contact_id VARCHAR(255) NOT NULL,
+    field      VARCHAR(10)  NOT NULL,
+    gram       VARCHAR(16)  NOT NULL,
+    username   VARCHAR(255) NOT NULL,
+    PRIMARY KEY (contact_id, field, gram, username),
+    INDEX contact_ngrams_lookup_idx (username, field, gram, contact_id),
+    INDEX contact_ngrams_contact_id_idx (contact_id)
+) ENGINE = InnoDB;
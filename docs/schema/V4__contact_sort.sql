@@ -0,0 +1,11 @@
+-- Contacts created before this stay NULL and sort as nulls.
+ALTER TABLE contacts
+    ADD COLUMN created_at BIGINT,
+    ALGORITHM = INSTANT;
+
+ALTER TABLE contacts
+    ADD INDEX contacts_username_first_name_idx (username, first_name, id),
+    ADD INDEX contacts_username_last_name_idx (username, last_name, id),
+    ADD INDEX contacts_username_email_idx (username, email, id),
+    ADD INDEX contacts_username_created_at_idx (username, created_at, id),
+    ALGORITHM = INPLACE, LOCK = NONE;
@@ -0,0 +1,7 @@
+-- Address filters of contact search, each ending in contact_id so the join reads only the index.
+ALTER TABLE addresses
+    ADD INDEX addresses_city_idx (city, contact_id),
+    ADD INDEX addresses_province_idx (province, contact_id),
+    ADD INDEX addresses_country_idx (country, contact_id),
+    ADD INDEX addresses_postal_code_idx (postal_code, contact_id),
+    ALGORITHM = INPLACE, LOCK = NONE;
@@ -0,0 +1,11 @@
+-- Addresses saved before this have no location and are not found by nearby search
+-- until they are updated with latitude and longitude.
+ALTER TABLE addresses
+    ADD COLUMN latitude DOUBLE,
+    ADD COLUMN longitude DOUBLE,
+    ADD COLUMN geohash VARCHAR(12),
+    ALGORITHM = INSTANT;
+
+ALTER TABLE addresses
+    ADD INDEX addresses_geohash_idx (geohash, contact_id),
+    ALGORITHM = INPLACE, LOCK = NONE;
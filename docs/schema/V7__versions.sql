@@ -0,0 +1,8 @@
+-- The default fills in version 0 for every existing row, so they can be updated with version 0.
+ALTER TABLE contacts
+    ADD COLUMN version BIGINT NOT NULL DEFAULT 0,
+    ALGORITHM = INSTANT;
+
+ALTER TABLE addresses
+    ADD COLUMN version BIGINT NOT NULL DEFAULT 0,
+    ALGORITHM = INSTANT;
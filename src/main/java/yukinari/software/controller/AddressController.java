@@ -1,14 +1,23 @@
 package yukinari.software.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import yukinari.software.entity.User;
 import yukinari.software.model.AddressResponse;
+import yukinari.software.model.ContactResponse;
 import yukinari.software.model.CreateAddressRequest;
+import yukinari.software.model.CursorPage;
+import yukinari.software.model.ListAddressRequest;
+import yukinari.software.model.NearbyAddressRequest;
+import yukinari.software.model.NearbyContactResponse;
+import yukinari.software.model.PagingResponse;
+import yukinari.software.model.SearchAddressRequest;
 import yukinari.software.model.UpdateAddressRequest;
 import yukinari.software.model.WebResponse;
 import yukinari.software.service.AddressService;
+import yukinari.software.service.ContactService;
 
 import java.util.List;
 
@@ -18,6 +27,9 @@ public class AddressController {
     @Autowired
     private AddressService addressService;
 
+    @Autowired
+    private ContactService contactService;
+
     @PostMapping(
             path = "/api/contacts/{idContact}/addresses",
             produces = MediaType.APPLICATION_JSON_VALUE,
@@ -37,6 +49,23 @@ public class AddressController {
 
     }
 
+    @PostMapping(
+            path = "/api/contacts/{idContact}/addresses/bulk",
+            produces = MediaType.APPLICATION_JSON_VALUE,
+            consumes = MediaType.APPLICATION_JSON_VALUE
+    )
+    public WebResponse<List<AddressResponse>> createAll(
+            User user,
+            @RequestBody List<CreateAddressRequest> requests,
+            @PathVariable(name = "idContact") String idContact
+    ) {
+        List<AddressResponse> addressResponses = addressService.createAll(user, idContact, requests);
+
+        return WebResponse.<List<AddressResponse>>builder()
+                .data(addressResponses)
+                .build();
+    }
+
     @GetMapping(
             path = "/api/contacts/{idContact}/addresses/{idAddress}",
             produces = MediaType.APPLICATION_JSON_VALUE
@@ -93,11 +122,113 @@ public class AddressController {
     )
     public WebResponse<List<AddressResponse>> list(
             User user,
-            @PathVariable(name = "idContact") String idContact
+            @PathVariable(name = "idContact") String idContact,
+            @RequestParam(name = "page", required = false) Integer page,
+            @RequestParam(name = "size", required = false) Integer size,
+            @RequestParam(name = "cursor", required = false) String cursor
+    ) {
+
+        //without paging parameters every address is returned, as before paging existed
+        if (page == null && size == null && cursor == null) {
+            List<AddressResponse> addressResponses = addressService.list(user, idContact);
+            return  WebResponse.<List<AddressResponse>>builder().data(addressResponses).build();
+        }
+
+        ListAddressRequest request = ListAddressRequest.builder()
+                .page(page == null ? 0 : page)
+                .size(size == null ? 10 : size)
+                .cursor(cursor)
+                .build();
+
+        if (cursor != null) {
+            CursorPage<AddressResponse> addressResponses = addressService.listByCursor(user, idContact, request);
+
+            return WebResponse.<List<AddressResponse>>builder()
+                    .data(addressResponses.getContent())
+                    .paging(PagingResponse.builder()
+                            .size(addressResponses.getSize())
+                            .nextCursor(addressResponses.getNextCursor())
+                            .build())
+                    .build();
+        }
+
+        Page<AddressResponse> addressResponses = addressService.list(user, idContact, request);
+
+        return WebResponse.<List<AddressResponse>>builder()
+                .data(addressResponses.getContent())
+                .paging(PagingResponse.builder()
+                        .currentPage(addressResponses.getNumber())
+                        .totalPage(addressResponses.getTotalPages())
+                        .size(addressResponses.getSize())
+                        .build())
+                .build();
+    }
+
+    @GetMapping(
+            path = "/api/addresses/search",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public WebResponse<List<ContactResponse>> search(
+            User user,
+            @RequestParam(name = "city", required = false) String city,
+            @RequestParam(name = "province", required = false) String province,
+            @RequestParam(name = "country", required = false) String country,
+            @RequestParam(name = "postalCode", required = false) String postalCode,
+            @RequestParam(name = "size", required = false, defaultValue = "10") Integer size,
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @RequestParam(name = "expand", required = false) String expand
+    ) {
+        SearchAddressRequest request = SearchAddressRequest.builder()
+                .city(city)
+                .province(province)
+                .country(country)
+                .postalCode(postalCode)
+                .size(size)
+                .cursor(cursor)
+                .expand(expand)
+                .build();
+
+        CursorPage<ContactResponse> contactResponses = contactService.searchByAddress(user, request);
+
+        return WebResponse.<List<ContactResponse>>builder()
+                .data(contactResponses.getContent())
+                .paging(PagingResponse.builder()
+                        .size(contactResponses.getSize())
+                        .nextCursor(contactResponses.getNextCursor())
+                        .build())
+                .build();
+    }
+
+    @GetMapping(
+            path = "/api/addresses/nearby",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public WebResponse<List<NearbyContactResponse>> nearby(
+            User user,
+            @RequestParam(name = "latitude", required = false) Double latitude,
+            @RequestParam(name = "longitude", required = false) Double longitude,
+            @RequestParam(name = "radius", required = false) Double radius,
+            @RequestParam(name = "minLatitude", required = false) Double minLatitude,
+            @RequestParam(name = "minLongitude", required = false) Double minLongitude,
+            @RequestParam(name = "maxLatitude", required = false) Double maxLatitude,
+            @RequestParam(name = "maxLongitude", required = false) Double maxLongitude,
+            @RequestParam(name = "size", required = false, defaultValue = "10") Integer size
     ) {
+        NearbyAddressRequest request = NearbyAddressRequest.builder()
+                .latitude(latitude)
+                .longitude(longitude)
+                .radius(radius)
+                .minLatitude(minLatitude)
+                .minLongitude(minLongitude)
+                .maxLatitude(maxLatitude)
+                .maxLongitude(maxLongitude)
+                .size(size)
+                .build();
 
-        List<AddressResponse> addressResponses = addressService.list(user, idContact);
-        return  WebResponse.<List<AddressResponse>>builder().data(addressResponses).build();
+        List<NearbyContactResponse> nearbyContactResponses = addressService.nearby(user, request);
 
+        return WebResponse.<List<NearbyContactResponse>>builder()
+                .data(nearbyContactResponses)
+                .build();
     }
 }
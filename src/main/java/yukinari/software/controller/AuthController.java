@@ -1,5 +1,6 @@
 package yukinari.software.controller;
 
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -23,8 +24,8 @@ public class AuthController {
             produces = MediaType.APPLICATION_JSON_VALUE,
             consumes = MediaType.APPLICATION_JSON_VALUE
     )
-    public WebResponse<TokenResponse> login(@RequestBody LoginUserRequest request) {
-        TokenResponse response = authService.login(request);
+    public WebResponse<TokenResponse> login(@RequestBody LoginUserRequest request, HttpServletRequest servletRequest) {
+        TokenResponse response = authService.login(request, servletRequest.getRemoteAddr());
 
         return WebResponse.<TokenResponse>builder()
                 .data(response)
@@ -42,4 +43,15 @@ public class AuthController {
                 .data("ok")
                 .build();
     }
+
+    @DeleteMapping(
+            path = "/api/auth/logout-all",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public WebResponse<String> logoutAll(User user) {
+        authService.logoutAll(user);
+        return WebResponse.<String>builder()
+                .data("ok")
+                .build();
+    }
 }
@@ -2,12 +2,21 @@ package yukinari.software.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import yukinari.software.entity.User;
 import yukinari.software.model.*;
+import yukinari.software.service.ContactBulkService;
+import yukinari.software.service.ContactExportService;
+import yukinari.software.service.ContactImportService;
 import yukinari.software.service.ContactService;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 @RestController
@@ -16,6 +25,15 @@ public class ContactController {
     @Autowired
     private ContactService contactService;
 
+    @Autowired
+    private ContactExportService contactExportService;
+
+    @Autowired
+    private ContactImportService contactImportService;
+
+    @Autowired
+    private ContactBulkService contactBulkService;
+
     @PostMapping(
             path = "/api/contacts",
             consumes = MediaType.APPLICATION_JSON_VALUE,
@@ -30,12 +48,67 @@ public class ContactController {
     }
 
 
+    @PostMapping(
+            path = "/api/contacts/bulk",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public WebResponse<BulkContactResponse> bulkCreate(User user, InputStream body) throws IOException {
+        BulkContactResponse bulkContactResponse = contactImportService.importJson(user, body);
+
+        return WebResponse.<BulkContactResponse>builder()
+                .data(bulkContactResponse)
+                .build();
+    }
+
+    @PostMapping(
+            path = "/api/contacts/bulk",
+            consumes = "text/csv",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public WebResponse<BulkContactResponse> bulkCreateCsv(User user, InputStream body) throws IOException {
+        BulkContactResponse bulkContactResponse = contactImportService.importCsv(user, body);
+
+        return WebResponse.<BulkContactResponse>builder()
+                .data(bulkContactResponse)
+                .build();
+    }
+
+    @PostMapping(
+            path = "/api/contacts/bulk/update",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public WebResponse<BulkOperationResponse> bulkUpdate(User user, @RequestBody BulkUpdateContactRequest request) {
+        BulkOperationResponse bulkOperationResponse = contactBulkService.update(user, request);
+
+        return WebResponse.<BulkOperationResponse>builder()
+                .data(bulkOperationResponse)
+                .build();
+    }
+
+    @PostMapping(
+            path = "/api/contacts/bulk/delete",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public WebResponse<BulkOperationResponse> bulkDelete(User user, @RequestBody BulkDeleteContactRequest request) {
+        BulkOperationResponse bulkOperationResponse = contactBulkService.delete(user, request);
+
+        return WebResponse.<BulkOperationResponse>builder()
+                .data(bulkOperationResponse)
+                .build();
+    }
+
     @GetMapping(
             path = "/api/contacts/{idContact}",
             produces = MediaType.APPLICATION_JSON_VALUE
     )
-    public WebResponse<ContactResponse> get(User user, @PathVariable("idContact") String idContact) {
-        ContactResponse contactResponse = contactService.get(user, idContact);
+    public WebResponse<ContactResponse> get(
+            User user,
+            @PathVariable("idContact") String idContact,
+            @RequestParam(name = "expand", required = false) String expand) {
+        ContactResponse contactResponse = contactService.get(user, idContact, expand);
 
         return WebResponse.<ContactResponse>builder()
                 .data(contactResponse)
@@ -73,6 +146,25 @@ public class ContactController {
                 .build();
     }
 
+    @GetMapping(path = "/api/contacts/export")
+    public ResponseEntity<StreamingResponseBody> export(
+            User user,
+            @RequestParam(name = "format", required = false, defaultValue = "ndjson") String format,
+            @RequestParam(name = "gzip", required = false, defaultValue = "false") boolean gzip
+    ) {
+        contactExportService.validateFormat(format);
+
+        boolean csv = ContactExportService.CSV.equals(format);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(csv ? new MediaType("text", "csv") : MediaType.APPLICATION_NDJSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"contacts." + format + "\"");
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+
+        return response.body(outputStream -> contactExportService.export(user, format, gzip, outputStream));
+    }
+
     @GetMapping(
             path = "/api/contacts",
             produces = MediaType.APPLICATION_JSON_VALUE
@@ -83,7 +175,12 @@ public class ContactController {
             @RequestParam(name = "email", required = false) String email,
             @RequestParam(name = "phone", required = false) String phone,
             @RequestParam(name = "page", required = false ,defaultValue = "0") Integer page,
-            @RequestParam(name = "size", required = false, defaultValue = "10") Integer size
+            @RequestParam(name = "size", required = false, defaultValue = "10") Integer size,
+            @RequestParam(name = "sort", required = false) String sort,
+            @RequestParam(name = "direction", required = false) String direction,
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @RequestParam(name = "count", required = false, defaultValue = "true") boolean count,
+            @RequestParam(name = "expand", required = false) String expand
     ) {
 
         SearchContactRequest request = SearchContactRequest.builder()
@@ -92,8 +189,38 @@ public class ContactController {
                 .phone(phone)
                 .size(size)
                 .page(page)
+                .sort(sort)
+                .direction(direction)
+                .cursor(cursor)
+                .count(count)
+                .expand(expand)
                 .build();
 
+        if (request.getCursor() != null) {
+            CursorPage<ContactResponse> contactResponses = contactService.searchByCursor(user, request);
+
+            return WebResponse.<List<ContactResponse>>builder()
+                    .data(contactResponses.getContent())
+                    .paging(PagingResponse.builder()
+                            .size(contactResponses.getSize())
+                            .nextCursor(contactResponses.getNextCursor())
+                            .build())
+                    .build();
+        }
+
+        if (!request.isCount()) {
+            Slice<ContactResponse> contactResponses = contactService.searchSlice(user, request);
+
+            return WebResponse.<List<ContactResponse>>builder()
+                    .data(contactResponses.getContent())
+                    .paging(PagingResponse.builder()
+                            .currentPage(contactResponses.getNumber())
+                            .size(contactResponses.getSize())
+                            .hasNext(contactResponses.hasNext())
+                            .build())
+                    .build();
+        }
+
         Page<ContactResponse> contactResponses = contactService.search(user, request);
 
         return WebResponse.<List<ContactResponse>>builder()
@@ -11,7 +11,13 @@ import lombok.Setter;
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity
-@Table(name = "addresses")
+@Table(name = "addresses", indexes = {
+        @Index(name = "addresses_city_idx", columnList = "city, contact_id"),
+        @Index(name = "addresses_province_idx", columnList = "province, contact_id"),
+        @Index(name = "addresses_country_idx", columnList = "country, contact_id"),
+        @Index(name = "addresses_postal_code_idx", columnList = "postal_code, contact_id"),
+        @Index(name = "addresses_geohash_idx", columnList = "geohash, contact_id")
+})
 public class Address {
 
     @Id
@@ -28,7 +34,19 @@ public class Address {
     @Column(name = "postal_code")
     private String postalCode;
 
-    @ManyToOne
+    private Double latitude;
+
+    private Double longitude;
+
+    //derived from latitude and longitude, null when they are
+    @Column(length = 12)
+    private String geohash;
+
+    @Version
+    @Column(nullable = false)
+    private Long version;
+
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "contact_id", referencedColumnName = "id")
     private Contact contact;
 }
@@ -13,7 +13,12 @@ import java.util.List;
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity
-@Table(name = "contacts")
+@Table(name = "contacts", indexes = {
+        @Index(name = "contacts_username_first_name_idx", columnList = "username, first_name, id"),
+        @Index(name = "contacts_username_last_name_idx", columnList = "username, last_name, id"),
+        @Index(name = "contacts_username_email_idx", columnList = "username, email, id"),
+        @Index(name = "contacts_username_created_at_idx", columnList = "username, created_at, id")
+})
 public class Contact {
 
     @Id
@@ -29,7 +34,14 @@ public class Contact {
 
     private String email;
 
-    @ManyToOne
+    @Column(name = "created_at")
+    private Long createdAt;
+
+    @Version
+    @Column(nullable = false)
+    private Long version;
+
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "username", referencedColumnName = "username")
     private User user;
 
@@ -0,0 +1,35 @@
+package yukinari.software.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@IdClass(ContactNgramId.class)
+@Table(name = "contact_ngrams", indexes = {
+        @Index(name = "contact_ngrams_lookup_idx", columnList = "username, field, gram, contact_id"),
+        @Index(name = "contact_ngrams_contact_id_idx", columnList = "contact_id")
+})
+public class ContactNgram {
+
+    @Id
+    private String username;
+
+    @Id
+    @Column(length = 10)
+    private String field;
+
+    @Id
+    @Column(length = 16)
+    private String gram;
+
+    @Id
+    @Column(name = "contact_id")
+    private String contactId;
+}
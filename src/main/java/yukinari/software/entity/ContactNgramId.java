@@ -0,0 +1,23 @@
+package yukinari.software.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ContactNgramId implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String username;
+
+    private String field;
+
+    private String gram;
+
+    private String contactId;
+}
@@ -0,0 +1,27 @@
+package yukinari.software.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "maintenance_leases")
+public class MaintenanceLease {
+
+    @Id
+    private String name;
+
+    private String owner;
+
+    @Column(name = "expires_at")
+    private Long expiresAt;
+}
@@ -23,9 +23,11 @@ public class User {
 
     private String name;
 
+    //the session the current request was authenticated with, sessions live in user_sessions
+    @Transient
     private String token;
 
-    @Column(name = "token_expired_at")
+    @Transient
     private Long tokenExpiredAt;
 
     @OneToMany(mappedBy = "user")
@@ -0,0 +1,27 @@
+package yukinari.software.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "user_sessions", indexes = {
+        @Index(name = "user_sessions_username_idx", columnList = "username"),
+        @Index(name = "user_sessions_expired_at_idx", columnList = "expired_at")
+})
+public class UserSession {
+
+    @Id
+    private String token;
+
+    private String username;
+
+    @Column(name = "expired_at")
+    private Long expiredAt;
+}
@@ -22,4 +22,10 @@ public class AddressResponse {
     private String country;
 
     private String postalCode;
+
+    private Double latitude;
+
+    private Double longitude;
+
+    private Long version;
 }
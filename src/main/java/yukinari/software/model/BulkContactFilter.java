@@ -0,0 +1,19 @@
+package yukinari.software.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BulkContactFilter {
+
+    private String name;
+
+    private String email;
+
+    private String phone;
+}
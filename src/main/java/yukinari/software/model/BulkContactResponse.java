@@ -0,0 +1,21 @@
+package yukinari.software.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BulkContactResponse {
+
+    private int created;
+
+    private int failed;
+
+    private List<BulkContactError> errors;
+}
@@ -0,0 +1,20 @@
+package yukinari.software.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BulkDeleteContactRequest {
+
+    //either ids or filter selects the contacts
+    private List<String> ids;
+
+    private BulkContactFilter filter;
+}
@@ -0,0 +1,17 @@
+package yukinari.software.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class BulkOperationResponse {
+
+    private int contacts;
+
+    private Integer addresses;
+}
@@ -1,10 +1,13 @@
 package yukinari.software.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.List;
+
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
@@ -20,4 +23,10 @@ public class ContactResponse {
     private String email;
 
     private String phone;
+
+    private Long version;
+
+    //only with expand=addresses
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<AddressResponse> addresses;
 }
@@ -0,0 +1,28 @@
+package yukinari.software.model;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class ListAddressRequest {
+
+    @PositiveOrZero
+    private Integer page;
+
+    @NotNull
+    @Positive
+    @Max(100)
+    private Integer size;
+
+    //switches to cursor pagination, empty for the first page
+    private String cursor;
+}
@@ -0,0 +1,53 @@
+package yukinari.software.model;
+
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class NearbyAddressRequest {
+
+    //a circle of radius meters around latitude and longitude
+    @DecimalMin("-90")
+    @DecimalMax("90")
+    private Double latitude;
+
+    @DecimalMin("-180")
+    @DecimalMax("180")
+    private Double longitude;
+
+    @Positive
+    @DecimalMax("100000")
+    private Double radius;
+
+    //or a bounding box
+    @DecimalMin("-90")
+    @DecimalMax("90")
+    private Double minLatitude;
+
+    @DecimalMin("-180")
+    @DecimalMax("180")
+    private Double minLongitude;
+
+    @DecimalMin("-90")
+    @DecimalMax("90")
+    private Double maxLatitude;
+
+    @DecimalMin("-180")
+    @DecimalMax("180")
+    private Double maxLongitude;
+
+    @NotNull
+    @Positive
+    @Max(100)
+    private Integer size;
+}
@@ -0,0 +1,21 @@
+package yukinari.software.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class NearbyContactResponse {
+
+    private ContactResponse contact;
+
+    //the contact's address nearest to the center
+    private AddressResponse address;
+
+    //meters from the center of the circle or box
+    private double distance;
+}
@@ -16,4 +16,8 @@ public class PagingResponse {
     private Integer totalPage;
 
     private Integer size;
+
+    private String nextCursor;
+
+    private Boolean hasNext;
 }
@@ -0,0 +1,35 @@
+package yukinari.software.model;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class SearchAddressRequest {
+
+    private String city;
+
+    private String province;
+
+    private String country;
+
+    //matches postal codes starting with it
+    private String postalCode;
+
+    @NotNull
+    @Positive
+    @Max(100)
+    private Integer size;
+
+    //empty or null for the first page
+    private String cursor;
+
+    private String expand;
+}
@@ -1,6 +1,9 @@
 package yukinari.software.model;
 
+import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -19,8 +22,25 @@ public class SearchContactRequest {
     private String email;
 
     @NotNull
+    @PositiveOrZero
     private Integer page;
 
     @NotNull
+    @Positive
+    @Max(100)
     private Integer size;
+
+    private String sort;
+
+    private String direction;
+
+    //keyset pagination when not null, empty for the first page
+    private String cursor;
+
+    //"addresses" to nest the addresses of every contact
+    private String expand;
+
+    //when false the total is not counted and only whether a next page exists is returned
+    @Builder.Default
+    private boolean count = true;
 }
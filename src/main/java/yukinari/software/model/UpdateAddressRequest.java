@@ -1,6 +1,8 @@
 package yukinari.software.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
 import lombok.AllArgsConstructor;
@@ -37,4 +39,15 @@ public class UpdateAddressRequest {
 
     @Size(max = 20)
     private String postalCode;
+
+    @DecimalMin("-90")
+    @DecimalMax("90")
+    private Double latitude;
+
+    @DecimalMin("-180")
+    @DecimalMax("180")
+    private Double longitude;
+
+    //the version that was read, the update fails with 409 when the address has changed since
+    private Long version;
 }
@@ -32,4 +32,7 @@ public class UpdateContactRequest {
 
     @Size(max = 100)
     private String phone;
+
+    //the version that was read, the update fails with 409 when the contact has changed since
+    private Long version;
 }
@@ -1,17 +1,52 @@
 package yukinari.software.repository;
 
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import yukinari.software.entity.Address;
-import yukinari.software.entity.Contact;
+import yukinari.software.entity.User;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface AddressRepository extends JpaRepository<Address, String> {
+public interface AddressRepository extends JpaRepository<Address, String>, JpaSpecificationExecutor<Address> {
 
-    Optional<Address> findFirstByContactAndId(Contact contact, String id);
+    List<Address> findAllByContactIdIn(Collection<String> contactIds);
 
-    List<Address> findAllByContact (Contact contact);
+    //the address, its contact and the contact's owner checked in one query
+    Optional<Address> findFirstByIdAndContactIdAndContactUser(String id, String contactId, User user);
+
+    List<Address> findAllByContactIdAndContactUser(String contactId, User user);
+
+    Page<Address> findAllByContactIdAndContactUser(String contactId, User user, Pageable pageable);
+
+    List<Address> findAllByContactIdAndContactUserAndIdGreaterThanOrderByIdAsc(String contactId, User user, String id, Limit limit);
+
+    //owner, version and write checked in one statement, a null version matches any
+    @Modifying
+    @Query("update Address a set a.street = :street, a.city = :city, a.province = :province, a.country = :country, " +
+            "a.postalCode = :postalCode, a.latitude = :latitude, a.longitude = :longitude, a.geohash = :geohash, " +
+            "a.version = a.version + 1 " +
+            "where a.id = :id and a.contact.id = :contactId and (:version is null or a.version = :version) " +
+            "and exists (select c from Contact c where c.id = :contactId and c.user = :user)")
+    int update(@Param("user") User user,
+               @Param("contactId") String contactId,
+               @Param("id") String id,
+               @Param("version") Long version,
+               @Param("street") String street,
+               @Param("city") String city,
+               @Param("province") String province,
+               @Param("country") String country,
+               @Param("postalCode") String postalCode,
+               @Param("latitude") Double latitude,
+               @Param("longitude") Double longitude,
+               @Param("geohash") String geohash);
 }
@@ -2,6 +2,9 @@ package yukinari.software.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import yukinari.software.entity.Contact;
 import yukinari.software.entity.User;
@@ -12,4 +15,19 @@ import java.util.Optional;
 public interface ContactRepository extends JpaRepository<Contact, String>, JpaSpecificationExecutor<Contact> {
 
     Optional<Contact> findFirstByUserAndId (User user, String id);
+
+    boolean existsByUserAndId(User user, String id);
+
+    //owner, version and write checked in one statement, a null version matches any
+    @Modifying
+    @Query("update Contact c set c.firstName = :firstName, c.lastName = :lastName, c.email = :email, c.phone = :phone, " +
+            "c.version = c.version + 1 " +
+            "where c.id = :id and c.user = :user and (:version is null or c.version = :version)")
+    int update(@Param("user") User user,
+               @Param("id") String id,
+               @Param("version") Long version,
+               @Param("firstName") String firstName,
+               @Param("lastName") String lastName,
+               @Param("email") String email,
+               @Param("phone") String phone);
 }
@@ -0,0 +1,30 @@
+package yukinari.software.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import yukinari.software.entity.MaintenanceLease;
+
+@Repository
+public interface MaintenanceLeaseRepository extends JpaRepository<MaintenanceLease, String> {
+
+    @Transactional
+    @Modifying
+    @Query("update MaintenanceLease l set l.owner = :owner, l.expiresAt = :expiresAt " +
+            "where l.name = :name and (l.owner = :owner or l.expiresAt < :now)")
+    int renew(@Param("name") String name,
+              @Param("owner") String owner,
+              @Param("expiresAt") Long expiresAt,
+              @Param("now") Long now);
+
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO maintenance_leases (name, owner, expires_at) VALUES (:name, :owner, :expiresAt)",
+            nativeQuery = true)
+    int create(@Param("name") String name,
+               @Param("owner") String owner,
+               @Param("expiresAt") Long expiresAt);
+}
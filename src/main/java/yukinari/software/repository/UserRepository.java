@@ -1,13 +1,28 @@
 package yukinari.software.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.stereotype.Repository;
 import yukinari.software.entity.User;
 
-import java.util.Optional;
-
 @Repository
 public interface UserRepository extends JpaRepository<User, String> {
 
-    Optional<User> findFirstByToken (String token);
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO users (username, password, name) VALUES (:username, :password, :name)",
+            nativeQuery = true)
+    int insert(@Param("username") String username,
+               @Param("password") String password,
+               @Param("name") String name);
+
+    @Transactional
+    @Modifying
+    @Query("update User u set u.password = :newPassword where u.username = :username and u.password = :oldPassword")
+    int updatePassword(@Param("username") String username,
+                       @Param("oldPassword") String oldPassword,
+                       @Param("newPassword") String newPassword);
 }
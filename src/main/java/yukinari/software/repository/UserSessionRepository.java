@@ -0,0 +1,36 @@
+package yukinari.software.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import yukinari.software.entity.UserSession;
+
+@Repository
+public interface UserSessionRepository extends JpaRepository<UserSession, String> {
+
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO user_sessions (token, username, expired_at) VALUES (:token, :username, :expiredAt)",
+            nativeQuery = true)
+    int insert(@Param("token") String token,
+               @Param("username") String username,
+               @Param("expiredAt") Long expiredAt);
+
+    @Transactional
+    @Modifying
+    @Query("delete from UserSession s where s.token = :token")
+    int deleteByToken(@Param("token") String token);
+
+    @Transactional
+    @Modifying
+    @Query("delete from UserSession s where s.username = :username")
+    int deleteByUsername(@Param("username") String username);
+
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM user_sessions WHERE expired_at < :now LIMIT :limit", nativeQuery = true)
+    int deleteExpired(@Param("now") Long now, @Param("limit") int limit);
+}
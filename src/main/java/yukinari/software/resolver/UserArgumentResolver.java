@@ -11,13 +11,26 @@ import org.springframework.web.method.support.HandlerMethodArgumentResolver;
 import org.springframework.web.method.support.ModelAndViewContainer;
 import org.springframework.web.server.ResponseStatusException;
 import yukinari.software.entity.User;
-import yukinari.software.repository.UserRepository;
+import yukinari.software.entity.UserSession;
+import yukinari.software.repository.UserSessionRepository;
+import yukinari.software.security.SignedTokenService;
+import yukinari.software.security.SlidingExpiryTracker;
+import yukinari.software.security.TokenCache;
 
 @Component
 public class UserArgumentResolver implements HandlerMethodArgumentResolver {
 
     @Autowired
-    private UserRepository userRepository;
+    private UserSessionRepository userSessionRepository;
+
+    @Autowired
+    private TokenCache tokenCache;
+
+    @Autowired
+    private SignedTokenService signedTokenService;
+
+    @Autowired
+    private SlidingExpiryTracker slidingExpiryTracker;
 
     @Override
     public boolean supportsParameter(MethodParameter parameter) {
@@ -33,11 +46,40 @@ public class UserArgumentResolver implements HandlerMethodArgumentResolver {
             throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorized");
         }
 
-        User user = userRepository.findFirstByToken(token)
-                .orElseThrow(() -> new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorized"));
+        if (signedTokenService.isEnabled() && signedTokenService.isSigned(token)) {
+            SignedTokenService.Claims claims = signedTokenService.verify(token)
+                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorized"));
 
-        if (user.getTokenExpiredAt() < System.currentTimeMillis()) {
-            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorized");
+            User user = new User();
+            user.setUsername(claims.username());
+            user.setToken(token);
+            user.setTokenExpiredAt(claims.expiredAt());
+            return user;
+        }
+
+        User user = tokenCache.get(token);
+        if (user == null) {
+            long generation = tokenCache.generation();
+            UserSession session = userSessionRepository.findById(token)
+                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorized"));
+
+            //an extension that is not flushed yet still counts
+            long expiredAt = Math.max(session.getExpiredAt(), slidingExpiryTracker.pendingExpiry(token));
+            if (expiredAt < System.currentTimeMillis()) {
+                throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorized");
+            }
+
+            //only the session row is read, services load the user row when they need it
+            user = new User();
+            user.setUsername(session.getUsername());
+            user.setToken(token);
+            user.setTokenExpiredAt(session.getExpiredAt());
+
+            tokenCache.put(token, user, generation);
+        }
+
+        if (slidingExpiryTracker.isEnabled()) {
+            user.setTokenExpiredAt(slidingExpiryTracker.touch(token));
         }
         return user;
     }
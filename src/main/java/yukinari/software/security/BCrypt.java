@@ -209,10 +209,35 @@ public class BCrypt {
     static final int MIN_LOG_ROUNDS = 4;
     static final int MAX_LOG_ROUNDS = 31;
 
+    // Working state is kept per thread and reused, so hashing a password does not allocate
+    // anything besides the returned String
+    private static final ThreadLocal<BCrypt> ENGINE = ThreadLocal.withInitial(BCrypt::new);
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
     // Expanded Blowfish key
-    private int P[];
+    private final int P[] = new int[P_orig.length];
+
+    private final int S[] = new int[S_orig.length];
+
+    // Key material taken from the password, correct and with the sign extension bug
+    private final int keyWords[] = new int[P_orig.length];
+
+    private final int keyWordsBug[] = new int[P_orig.length];
+
+    // Key material taken from the salt, the 16 byte salt repeats every 4 words
+    private final int saltWords[] = new int[BCRYPT_SALT_LEN / 4];
+
+    private final byte saltBytes[] = new byte[BCRYPT_SALT_LEN];
 
-    private int S[];
+    private final int cdata[] = new int[bf_crypt_ciphertext.length];
+
+    private final byte hashBytes[] = new byte[bf_crypt_ciphertext.length * 4];
+
+    // "$2a$10$" + 22 characters of salt + 31 characters of hash
+    private final char encoded[] = new char[60];
+
+    private int encodedLength;
 
     /**
      * Encode a byte array using bcrypt's slightly-modified base64 encoding scheme. Note
@@ -224,6 +249,20 @@ public class BCrypt {
      * @exception IllegalArgumentException if the length is invalid
      */
     static void encode_base64(byte d[], int len, StringBuilder rs) throws IllegalArgumentException {
+        char out[] = new char[(len * 4 + 2) / 3];
+        rs.append(out, 0, encode_base64(d, len, out, 0));
+    }
+
+    /**
+     * Encode a byte array using bcrypt's base64 encoding scheme into a char buffer
+     * @param d the byte array to encode
+     * @param len the number of bytes to encode
+     * @param out the destination buffer
+     * @param pos the position in out to start writing at
+     * @return the position in out after the last written character
+     * @exception IllegalArgumentException if the length is invalid
+     */
+    static int encode_base64(byte d[], int len, char out[], int pos) throws IllegalArgumentException {
         int off = 0;
         int c1, c2;
 
@@ -233,25 +272,26 @@ public class BCrypt {
 
         while (off < len) {
             c1 = d[off++] & 0xff;
-            rs.append(base64_code[(c1 >> 2) & 0x3f]);
+            out[pos++] = base64_code[(c1 >> 2) & 0x3f];
             c1 = (c1 & 0x03) << 4;
             if (off >= len) {
-                rs.append(base64_code[c1 & 0x3f]);
+                out[pos++] = base64_code[c1 & 0x3f];
                 break;
             }
             c2 = d[off++] & 0xff;
             c1 |= (c2 >> 4) & 0x0f;
-            rs.append(base64_code[c1 & 0x3f]);
+            out[pos++] = base64_code[c1 & 0x3f];
             c1 = (c2 & 0x0f) << 2;
             if (off >= len) {
-                rs.append(base64_code[c1 & 0x3f]);
+                out[pos++] = base64_code[c1 & 0x3f];
                 break;
             }
             c2 = d[off++] & 0xff;
             c1 |= (c2 >> 6) & 0x03;
-            rs.append(base64_code[c1 & 0x3f]);
-            rs.append(base64_code[c2 & 0x3f]);
+            out[pos++] = base64_code[c1 & 0x3f];
+            out[pos++] = base64_code[c2 & 0x3f];
         }
+        return pos;
     }
 
     /**
@@ -276,16 +316,28 @@ public class BCrypt {
      * @throws IllegalArgumentException if maxolen is invalid
      */
     static byte[] decode_base64(String s, int maxolen) throws IllegalArgumentException {
-        StringBuilder rs = new StringBuilder();
-        int off = 0, slen = s.length(), olen = 0;
-        byte ret[];
-        byte c1, c2, c3, c4, o;
-
         if (maxolen <= 0) {
             throw new IllegalArgumentException("Invalid maxolen");
         }
 
-        while (off < slen - 1 && olen < maxolen) {
+        byte out[] = new byte[maxolen];
+        return Arrays.copyOf(out, decode_base64(s, 0, s.length(), maxolen, out));
+    }
+
+    /**
+     * Decode part of a string encoded using bcrypt's base64 scheme into a byte buffer
+     * @param s the string to decode
+     * @param off the position of the first character to decode
+     * @param end the position after the last character to decode
+     * @param maxolen the maximum number of bytes to decode
+     * @param out the destination buffer, at least maxolen long
+     * @return the number of decoded bytes
+     */
+    private static int decode_base64(String s, int off, int end, int maxolen, byte out[]) {
+        int olen = 0;
+        byte c1, c2, c3, c4, o;
+
+        while (off < end - 1 && olen < maxolen) {
             c1 = char64(s.charAt(off++));
             c2 = char64(s.charAt(off++));
             if (c1 == -1 || c2 == -1) {
@@ -293,8 +345,8 @@ public class BCrypt {
             }
             o = (byte) (c1 << 2);
             o |= (c2 & 0x30) >> 4;
-            rs.append((char) o);
-            if (++olen >= maxolen || off >= slen) {
+            out[olen] = o;
+            if (++olen >= maxolen || off >= end) {
                 break;
             }
             c3 = char64(s.charAt(off++));
@@ -303,183 +355,155 @@ public class BCrypt {
             }
             o = (byte) ((c2 & 0x0f) << 4);
             o |= (c3 & 0x3c) >> 2;
-            rs.append((char) o);
-            if (++olen >= maxolen || off >= slen) {
+            out[olen] = o;
+            if (++olen >= maxolen || off >= end) {
                 break;
             }
             c4 = char64(s.charAt(off++));
             o = (byte) ((c3 & 0x03) << 6);
             o |= c4;
-            rs.append((char) o);
+            out[olen] = o;
             ++olen;
         }
-
-        ret = new byte[olen];
-        for (off = 0; off < olen; off++) {
-            ret[off] = (byte) rs.charAt(off);
-        }
-        return ret;
+        return olen;
     }
 
     /**
-     * Blowfish encipher a single 64-bit block encoded as two 32-bit halves
-     * @param lr an array containing the two 32-bit half blocks
-     * @param off the position in the array of the blocks
+     * Blowfish encipher a single 64-bit block, kept in a long so that the key schedule
+     * loops can hold it in registers
+     * @param lr the block, left half in the high 32 bits and right half in the low 32 bits
+     * @return the enciphered block
      */
-    private void encipher(int lr[], int off) {
-        int i, n, l = lr[off], r = lr[off + 1];
+    private long encipher(long lr) {
+        final int p[] = this.P, s[] = this.S;
+        int i, n, l = (int) (lr >>> 32), r = (int) lr;
 
-        l ^= this.P[0];
+        l ^= p[0];
         for (i = 0; i <= BLOWFISH_NUM_ROUNDS - 2;) {
             // Feistel substitution on left word
-            n = this.S[(l >> 24) & 0xff];
-            n += this.S[0x100 | ((l >> 16) & 0xff)];
-            n ^= this.S[0x200 | ((l >> 8) & 0xff)];
-            n += this.S[0x300 | (l & 0xff)];
-            r ^= n ^ this.P[++i];
+            n = s[(l >>> 24)];
+            n += s[0x100 | ((l >> 16) & 0xff)];
+            n ^= s[0x200 | ((l >> 8) & 0xff)];
+            n += s[0x300 | (l & 0xff)];
+            r ^= n ^ p[++i];
 
             // Feistel substitution on right word
-            n = this.S[(r >> 24) & 0xff];
-            n += this.S[0x100 | ((r >> 16) & 0xff)];
-            n ^= this.S[0x200 | ((r >> 8) & 0xff)];
-            n += this.S[0x300 | (r & 0xff)];
-            l ^= n ^ this.P[++i];
-        }
-        lr[off] = r ^ this.P[BLOWFISH_NUM_ROUNDS + 1];
-        lr[off + 1] = l;
+            n = s[(r >>> 24)];
+            n += s[0x100 | ((r >> 16) & 0xff)];
+            n ^= s[0x200 | ((r >> 8) & 0xff)];
+            n += s[0x300 | (r & 0xff)];
+            l ^= n ^ p[++i];
+        }
+        r ^= p[BLOWFISH_NUM_ROUNDS + 1];
+        return ((long) r << 32) | (l & 0xffffffffL);
     }
 
     /**
-     * Cycically extract a word of key material
-     * @param data the string to extract the data from
-     * @param offp a "pointer" (as a one-entry array) to the current offset into data
-     * @param signp a "pointer" (as a one-entry array) to the cumulative flag for
-     * non-benign sign extension
-     * @return correct and buggy next word of material from data as int[2]
+     * Cyclically extract the words of key material the key schedule takes from the
+     * password, both correct and with the sign extension bug. The key schedule always
+     * starts reading at offset 0, so these are the same for every round.
+     * @param data the password
+     * @param length the number of bytes of key material, one more than data.length when a
+     * terminating NUL is implied
+     * @return the cumulative flag for non-benign sign extension, moved to bit 16, or 0
+     * when the correct and buggy words are identical
      */
-    private static int[] streamtowords(byte data[], int offp[], int signp[]) {
-        int i;
-        int words[] = { 0, 0 };
-        int off = offp[0];
-        int sign = signp[0];
-
-        for (i = 0; i < 4; i++) {
-            words[0] = (words[0] << 8) | (data[off] & 0xff);
-            words[1] = (words[1] << 8) | data[off]; // sign extension bug
-            if (i > 0) {
-                sign |= words[1] & 0x80;
+    private int passwordWords(byte data[], int length) {
+        int off = 0, sign = 0, diff = 0;
+
+        for (int w = 0; w < keyWords.length; w++) {
+            int word = 0, wordBug = 0;
+            for (int i = 0; i < 4; i++) {
+                byte b = off < data.length ? data[off] : 0;
+                word = (word << 8) | (b & 0xff);
+                wordBug = (wordBug << 8) | b; // sign extension bug
+                if (i > 0) {
+                    sign |= wordBug & 0x80;
+                }
+                off = (off + 1) % length;
             }
-            off = (off + 1) % data.length;
+            keyWords[w] = word;
+            keyWordsBug[w] = wordBug;
+            diff |= word ^ wordBug;
         }
 
-        offp[0] = off;
-        signp[0] = sign;
-        return words;
-    }
-
-    /**
-     * Cycically extract a word of key material
-     * @param data the string to extract the data from
-     * @param offp a "pointer" (as a one-entry array) to the current offset into data
-     * @return the next word of material from data
-     */
-    private static int streamtoword(byte data[], int offp[]) {
-        int signp[] = { 0 };
-        return streamtowords(data, offp, signp)[0];
+        /*
+         * At this point, "diff" is zero iff the correct and buggy algorithms produced
+         * exactly the same result. If so and if "sign" is non-zero, which indicates that
+         * there was a non-benign sign extension, this means that we have a collision
+         * between the correctly computed hash for this password and a set of passwords
+         * that could be supplied to the buggy algorithm. Our safety measure is meant to
+         * protect from such many-buggy to one-correct collisions, by deviating from the
+         * correct algorithm in such cases. Let's check for this.
+         */
+        diff |= diff >> 16; /* still zero iff exact match */
+        diff &= 0xffff; /* ditto */
+        diff += 0xffff; /* bit 16 set iff "diff" was non-zero (on non-match) */
+        sign <<= 9; /* move the non-benign sign extension flag to bit 16 */
+        return sign & ~diff;
     }
 
     /**
-     * Cycically extract a word of key material, with sign-extension bug
-     * @param data the string to extract the data from
-     * @param offp a "pointer" (as a one-entry array) to the current offset into data
-     * @return the next word of material from data
+     * Extract the salt words of key material
+     * @param salt the 16 byte salt
      */
-    private static int streamtoword_bug(byte data[], int offp[]) {
-        int signp[] = { 0 };
-        return streamtowords(data, offp, signp)[1];
+    private void saltWords(byte salt[]) {
+        for (int w = 0, off = 0; w < saltWords.length; w++) {
+            saltWords[w] = ((salt[off++] & 0xff) << 24) | ((salt[off++] & 0xff) << 16)
+                    | ((salt[off++] & 0xff) << 8) | (salt[off++] & 0xff);
+        }
     }
 
     /**
      * Initialise the Blowfish key schedule
      */
     private void init_key() {
-        this.P = P_orig.clone();
-        this.S = S_orig.clone();
+        System.arraycopy(P_orig, 0, this.P, 0, P_orig.length);
+        System.arraycopy(S_orig, 0, this.S, 0, S_orig.length);
     }
 
     /**
      * Key the Blowfish cipher
-     * @param key an array containing the key
-     * @param sign_ext_bug true to implement the 2x bug
-     * @param safety bit 16 is set when the safety measure is requested
+     * @param words the key material, keyWords, keyWordsBug or saltWords
      */
-    private void key(byte key[], boolean sign_ext_bug, int safety) {
-        int i;
-        int koffp[] = { 0 };
-        int lr[] = { 0, 0 };
-        int plen = this.P.length, slen = this.S.length;
-
-        for (i = 0; i < plen; i++) {
-            if (!sign_ext_bug) {
-                this.P[i] = this.P[i] ^ streamtoword(key, koffp);
-            }
-            else {
-                this.P[i] = this.P[i] ^ streamtoword_bug(key, koffp);
-            }
+    private void key(int words[]) {
+        final int p[] = this.P, s[] = this.S;
+        int plen = p.length, slen = s.length, wlen = words.length;
+        long lr = 0;
+
+        // the salt words repeat, the password words cover all of P
+        for (int i = 0; i < plen; i++) {
+            p[i] ^= words[i % wlen];
         }
 
-        for (i = 0; i < plen; i += 2) {
-            encipher(lr, 0);
-            this.P[i] = lr[0];
-            this.P[i + 1] = lr[1];
+        for (int i = 0; i < plen; i += 2) {
+            lr = encipher(lr);
+            p[i] = (int) (lr >>> 32);
+            p[i + 1] = (int) lr;
         }
 
-        for (i = 0; i < slen; i += 2) {
-            encipher(lr, 0);
-            this.S[i] = lr[0];
-            this.S[i + 1] = lr[1];
+        for (int i = 0; i < slen; i += 2) {
+            lr = encipher(lr);
+            s[i] = (int) (lr >>> 32);
+            s[i + 1] = (int) lr;
         }
     }
 
     /**
      * Perform the "enhanced key schedule" step described by Provos and Mazieres in "A
      * Future-Adaptable Password Scheme" https://www.openbsd.org/papers/bcrypt-paper.ps
-     * @param data salt information
-     * @param key password information
-     * @param sign_ext_bug true to implement the 2x bug
-     * @param safety bit 16 is set when the safety measure is requested
+     * @param words password key material
+     * @param sign the result of passwordWords, masked with the requested safety bit
      */
-    private void ekskey(byte data[], byte key[], boolean sign_ext_bug, int safety) {
-        int i;
-        int koffp[] = { 0 }, doffp[] = { 0 };
-        int lr[] = { 0, 0 };
-        int plen = this.P.length, slen = this.S.length;
-        int signp[] = { 0 }; // non-benign sign-extension flag
-        int diff = 0; // zero iff correct and buggy are same
+    private void ekskey(int words[], int sign) {
+        final int p[] = this.P, s[] = this.S, salt[] = this.saltWords;
+        int plen = p.length, slen = s.length, d = 0;
+        long lr = 0;
 
-        for (i = 0; i < plen; i++) {
-            int words[] = streamtowords(key, koffp, signp);
-            diff |= words[0] ^ words[1];
-            this.P[i] = this.P[i] ^ words[sign_ext_bug ? 1 : 0];
+        for (int i = 0; i < plen; i++) {
+            p[i] ^= words[i];
         }
 
-        int sign = signp[0];
-
-        /*
-         * At this point, "diff" is zero iff the correct and buggy algorithms produced
-         * exactly the same result. If so and if "sign" is non-zero, which indicates that
-         * there was a non-benign sign extension, this means that we have a collision
-         * between the correctly computed hash for this password and a set of passwords
-         * that could be supplied to the buggy algorithm. Our safety measure is meant to
-         * protect from such many-buggy to one-correct collisions, by deviating from the
-         * correct algorithm in such cases. Let's check for this.
-         */
-        diff |= diff >> 16; /* still zero iff exact match */
-        diff &= 0xffff; /* ditto */
-        diff += 0xffff; /* bit 16 set iff "diff" was non-zero (on non-match) */
-        sign <<= 9; /* move the non-benign sign extension flag to bit 16 */
-        sign &= ~diff & safety; /* action needed? */
-
         /*
          * If we have determined that we need to deviate from the correct algorithm, flip
          * bit 16 in initial expanded key. (The choice of 16 is arbitrary, but let's stick
@@ -491,22 +515,20 @@ public class BCrypt {
          * that could be directly specified by a password to the buggy algorithm (and to
          * the fully correct one as well, but that's a side-effect).
          */
-        this.P[0] ^= sign;
+        p[0] ^= sign;
 
-        for (i = 0; i < plen; i += 2) {
-            lr[0] ^= streamtoword(data, doffp);
-            lr[1] ^= streamtoword(data, doffp);
-            encipher(lr, 0);
-            this.P[i] = lr[0];
-            this.P[i + 1] = lr[1];
+        for (int i = 0; i < plen; i += 2) {
+            lr ^= ((long) salt[d++ & 3] << 32) | (salt[d++ & 3] & 0xffffffffL);
+            lr = encipher(lr);
+            p[i] = (int) (lr >>> 32);
+            p[i + 1] = (int) lr;
         }
 
-        for (i = 0; i < slen; i += 2) {
-            lr[0] ^= streamtoword(data, doffp);
-            lr[1] ^= streamtoword(data, doffp);
-            encipher(lr, 0);
-            this.S[i] = lr[0];
-            this.S[i + 1] = lr[1];
+        for (int i = 0; i < slen; i += 2) {
+            lr ^= ((long) salt[d++ & 3] << 32) | (salt[d++ & 3] & 0xffffffffL);
+            lr = encipher(lr);
+            s[i] = (int) (lr >>> 32);
+            s[i + 1] = (int) lr;
         }
     }
 
@@ -518,19 +540,16 @@ public class BCrypt {
     }
 
     /**
-     * Perform the central password hashing step in the bcrypt scheme
+     * Perform the central password hashing step in the bcrypt scheme, leaving the binary
+     * hashed password in hashBytes
      * @param password the password to hash
-     * @param salt the binary salt to hash with the password
+     * @param nul true to append a terminating NUL to the password
      * @param log_rounds the binary logarithm of the number of rounds of hashing to apply
      * @param sign_ext_bug true to implement the 2x bug
      * @param safety bit 16 is set when the safety measure is requested
-     * @return an array containing the binary hashed password
      */
-    private byte[] crypt_raw(byte password[], byte salt[], int log_rounds, boolean sign_ext_bug, int safety,
-                             boolean for_check) {
-        int cdata[] = bf_crypt_ciphertext.clone();
-        int clen = cdata.length;
-
+    private void crypt_raw(byte password[], boolean nul, int log_rounds, boolean sign_ext_bug, int safety,
+                           boolean for_check) {
         long rounds;
         if (log_rounds < 4 || log_rounds > 31) {
             if (!for_check) {
@@ -548,35 +567,38 @@ public class BCrypt {
             }
         }
 
-        if (salt.length != BCRYPT_SALT_LEN) {
-            throw new IllegalArgumentException("Bad salt length");
-        }
+        int sign = passwordWords(password, nul ? password.length + 1 : password.length) & safety;
+        int words[] = sign_ext_bug ? keyWordsBug : keyWords;
+        saltWords(saltBytes);
 
-        init_key();
-        ekskey(salt, password, sign_ext_bug, safety);
-        for (int i = 0; i < rounds; i++) {
-            key(password, sign_ext_bug, safety);
-            key(salt, false, safety);
-        }
+        try {
+            init_key();
+            ekskey(words, sign);
+            for (long i = 0; i < rounds; i++) {
+                key(words);
+                key(saltWords);
+            }
 
-        for (int i = 0; i < 64; i++) {
-            for (int j = 0; j < (clen >> 1); j++) {
-                encipher(cdata, j << 1);
+            int cdata[] = this.cdata, clen = cdata.length;
+            System.arraycopy(bf_crypt_ciphertext, 0, cdata, 0, clen);
+            for (int i = 0; i < 64; i++) {
+                for (int j = 0; j < clen; j += 2) {
+                    long lr = encipher(((long) cdata[j] << 32) | (cdata[j + 1] & 0xffffffffL));
+                    cdata[j] = (int) (lr >>> 32);
+                    cdata[j + 1] = (int) lr;
+                }
             }
-        }
 
-        byte[] ret = new byte[clen * 4];
-        for (int i = 0, j = 0; i < clen; i++) {
-            ret[j++] = (byte) ((cdata[i] >> 24) & 0xff);
-            ret[j++] = (byte) ((cdata[i] >> 16) & 0xff);
-            ret[j++] = (byte) ((cdata[i] >> 8) & 0xff);
-            ret[j++] = (byte) (cdata[i] & 0xff);
+            for (int i = 0, j = 0; i < clen; i++) {
+                hashBytes[j++] = (byte) ((cdata[i] >> 24) & 0xff);
+                hashBytes[j++] = (byte) ((cdata[i] >> 16) & 0xff);
+                hashBytes[j++] = (byte) ((cdata[i] >> 8) & 0xff);
+                hashBytes[j++] = (byte) (cdata[i] & 0xff);
+            }
+        } finally {
+            Arrays.fill(keyWords, 0);
+            Arrays.fill(keyWordsBug, 0);
         }
-        return ret;
-    }
-
-    private static String hashpwforcheck(byte[] passwordb, String salt) {
-        return hashpw(passwordb, salt, true);
     }
 
     /**
@@ -600,16 +622,17 @@ public class BCrypt {
      * @return the hashed password
      */
     public static String hashpw(byte passwordb[], String salt) {
-        return hashpw(passwordb, salt, false);
+        BCrypt B = ENGINE.get();
+        B.hash(passwordb, salt, false);
+        return new String(B.encoded, 0, B.encodedLength);
     }
 
-    private static String hashpw(byte passwordb[], String salt, boolean for_check) {
-        BCrypt B;
-        String real_salt;
-        byte saltb[], hashed[];
+    /**
+     * Hash a password, leaving the encoded result in encoded
+     */
+    private void hash(byte passwordb[], String salt, boolean for_check) {
         char minor = (char) 0;
         int rounds, off;
-        StringBuilder rs = new StringBuilder();
 
         if (salt == null) {
             throw new IllegalArgumentException("salt cannot be null");
@@ -643,31 +666,58 @@ public class BCrypt {
         if (off == 4 && saltLength < 29) {
             throw new IllegalArgumentException("Invalid salt");
         }
-        rounds = Integer.parseInt(salt.substring(off, off + 2));
+        rounds = parseRounds(salt, off);
 
-        real_salt = salt.substring(off + 3, off + 25);
-        saltb = decode_base64(real_salt, BCRYPT_SALT_LEN);
-
-        if (minor >= 'a') {
-            passwordb = Arrays.copyOf(passwordb, passwordb.length + 1);
+        int saltLen = decode_base64(salt, off + 3, off + 25, BCRYPT_SALT_LEN, saltBytes);
+        if (saltLen != BCRYPT_SALT_LEN) {
+            // same check crypt_raw used to apply, after validating the rounds
+            crypt_rounds_check(rounds, for_check);
+            throw new IllegalArgumentException("Bad salt length");
         }
 
-        B = new BCrypt();
-        hashed = B.crypt_raw(passwordb, saltb, rounds, minor == 'x', minor == 'a' ? 0x10000 : 0, for_check);
+        crypt_raw(passwordb, minor >= 'a', rounds, minor == 'x', minor == 'a' ? 0x10000 : 0, for_check);
 
-        rs.append("$2");
+        char rs[] = this.encoded;
+        int pos = 0;
+        rs[pos++] = '$';
+        rs[pos++] = '2';
         if (minor >= 'a') {
-            rs.append(minor);
+            rs[pos++] = minor;
+        }
+        rs[pos++] = '$';
+        rs[pos++] = (char) ('0' + rounds / 10);
+        rs[pos++] = (char) ('0' + rounds % 10);
+        rs[pos++] = '$';
+        pos = encode_base64(saltBytes, saltBytes.length, rs, pos);
+        pos = encode_base64(hashBytes, bf_crypt_ciphertext.length * 4 - 1, rs, pos);
+        encodedLength = pos;
+    }
+
+    private static int parseRounds(String salt, int off) {
+        char tens = salt.charAt(off), units = salt.charAt(off + 1);
+        if (tens >= '0' && tens <= '9' && units >= '0' && units <= '9') {
+            return (tens - '0') * 10 + (units - '0');
         }
-        rs.append("$");
-        if (rounds < 10) {
-            rs.append("0");
+        return Integer.parseInt(salt.substring(off, off + 2));
+    }
+
+    private static void crypt_rounds_check(int log_rounds, boolean for_check) {
+        if ((log_rounds < 4 || log_rounds > 31) && (!for_check || log_rounds != 0)) {
+            throw new IllegalArgumentException("Bad number of rounds");
         }
-        rs.append(rounds);
-        rs.append("$");
-        encode_base64(saltb, saltb.length, rs);
-        encode_base64(hashed, bf_crypt_ciphertext.length * 4 - 1, rs);
-        return rs.toString();
+    }
+
+    /**
+     * Compare the encoded hash with a stored one without returning early
+     */
+    private boolean matches(String hashed) {
+        int length = hashed.length();
+        int diff = length ^ encodedLength;
+
+        for (int i = 0; i < encodedLength; i++) {
+            diff |= encoded[i] ^ hashed.charAt(i < length ? i : 0);
+        }
+        return diff == 0;
     }
 
     /**
@@ -714,7 +764,7 @@ public class BCrypt {
      * @exception IllegalArgumentException if prefix or log_rounds is invalid
      */
     public static String gensalt(String prefix, int log_rounds) throws IllegalArgumentException {
-        return gensalt(prefix, log_rounds, new SecureRandom());
+        return gensalt(prefix, log_rounds, RANDOM);
     }
 
     /**
@@ -737,7 +787,7 @@ public class BCrypt {
      * @exception IllegalArgumentException if log_rounds is invalid
      */
     public static String gensalt(int log_rounds) throws IllegalArgumentException {
-        return gensalt(log_rounds, new SecureRandom());
+        return gensalt(log_rounds, RANDOM);
     }
 
     public static String gensalt(String prefix) {
@@ -760,8 +810,7 @@ public class BCrypt {
      * @return true if the passwords match, false otherwise
      */
     public static boolean checkpw(String plaintext, String hashed) {
-        byte[] passwordb = plaintext.getBytes(StandardCharsets.UTF_8);
-        return equalsNoEarlyReturn(hashed, hashpwforcheck(passwordb, hashed));
+        return checkpw(plaintext.getBytes(StandardCharsets.UTF_8), hashed);
     }
 
     /**
@@ -772,11 +821,9 @@ public class BCrypt {
      * @since 5.3
      */
     public static boolean checkpw(byte[] passwordb, String hashed) {
-        return equalsNoEarlyReturn(hashed, hashpwforcheck(passwordb, hashed));
-    }
-
-    static boolean equalsNoEarlyReturn(String a, String b) {
-        return MessageDigest.isEqual(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+        BCrypt B = ENGINE.get();
+        B.hash(passwordb, hashed, true);
+        return B.matches(hashed);
     }
 
 }
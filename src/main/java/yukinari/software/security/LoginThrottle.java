@@ -0,0 +1,176 @@
+package yukinari.software.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Counts failed logins per username and per client address with leaky buckets, so abusive
+ * attempts can be turned away before the user row is loaded or any BCrypt work is done.
+ * <p>
+ * A bucket fills by one on every failure and drains completely over
+ * <code>app.login-throttle.window</code>; an attempt is rejected while one more failure would
+ * overflow the configured maximum.
+ * <p>
+ * Every attempt reserves its failure up front, before the password is checked, and gives it
+ * back when the login succeeds or never got to the check. Parallel guesses therefore see each
+ * other's reservations and cannot all pass while the first check is still running.
+ * <p>
+ * The address is the request's remote address. Behind a reverse proxy that is the proxy for
+ * every client, so set <code>server.forward-headers-strategy=native</code> and list the proxies
+ * in <code>server.tomcat.remoteip.internal-proxies</code>; the client address is then taken
+ * from X-Forwarded-For, but only when the request came from one of those proxies.
+ */
+@Component
+public class LoginThrottle {
+
+    @Value("${app.login-throttle.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.login-throttle.max-failures-per-username:5}")
+    private int maxFailuresPerUsername;
+
+    @Value("${app.login-throttle.max-failures-per-address:20}")
+    private int maxFailuresPerAddress;
+
+    @Value("${app.login-throttle.window:1m}")
+    private Duration window;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final ConcurrentHashMap<String, Bucket> usernames = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Bucket> addresses = new ConcurrentHashMap<>();
+
+    private Counter rejectedByUsername;
+
+    private Counter rejectedByAddress;
+
+    @PostConstruct
+    void registerMetrics() {
+        rejectedByUsername = meterRegistry.counter("login.throttle.rejected", "key", "username");
+        rejectedByAddress = meterRegistry.counter("login.throttle.rejected", "key", "address");
+        Gauge.builder("login.throttle.tracked", this, throttle -> throttle.usernames.size() + throttle.addresses.size())
+                .register(meterRegistry);
+    }
+
+    /**
+     * Reserves one failure in both buckets, or none when either is full.
+     */
+    public boolean tryAcquire(String username, String address) {
+        if (!enabled) {
+            return true;
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (!tryAdd(addresses, address, now, maxFailuresPerAddress)) {
+            rejectedByAddress.increment();
+            return false;
+        }
+
+        if (!tryAdd(usernames, username, now, maxFailuresPerUsername)) {
+            remove(addresses, address, now, maxFailuresPerAddress);
+            rejectedByUsername.increment();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Gives back a reservation of an attempt that ended before its password was checked.
+     */
+    public void release(String username, String address) {
+        if (!enabled) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        remove(usernames, username, now, maxFailuresPerUsername);
+        remove(addresses, address, now, maxFailuresPerAddress);
+    }
+
+    /**
+     * A right password clears the username's failures and gives back the address reservation.
+     */
+    public void succeeded(String username, String address) {
+        if (!enabled) {
+            return;
+        }
+
+        usernames.remove(username);
+        remove(addresses, address, System.currentTimeMillis(), maxFailuresPerAddress);
+    }
+
+    //compute runs under the key's lock, so the sweep below cannot drop a bucket while it is being filled
+    private boolean tryAdd(ConcurrentHashMap<String, Bucket> buckets, String key, long now, int capacity) {
+        boolean[] added = new boolean[1];
+        buckets.compute(key, (k, bucket) -> {
+            Bucket current = bucket == null ? new Bucket() : bucket;
+            added[0] = current.tryAdd(now, capacity, window);
+            return current;
+        });
+        return added[0];
+    }
+
+    private void remove(ConcurrentHashMap<String, Bucket> buckets, String key, long now, int capacity) {
+        buckets.computeIfPresent(key, (k, bucket) -> {
+            bucket.remove(now, capacity, window);
+            return bucket;
+        });
+    }
+
+    @Scheduled(fixedDelay = 60_000)
+    void removeDrained() {
+        long now = System.currentTimeMillis();
+        usernames.keySet().forEach(key -> usernames.computeIfPresent(key,
+                (k, bucket) -> bucket.level(now, maxFailuresPerUsername, window) <= 0 ? null : bucket));
+        addresses.keySet().forEach(key -> addresses.computeIfPresent(key,
+                (k, bucket) -> bucket.level(now, maxFailuresPerAddress, window) <= 0 ? null : bucket));
+    }
+
+    private static final class Bucket {
+
+        private final AtomicReference<State> state = new AtomicReference<>(new State(0, 0));
+
+        double level(long now, int capacity, Duration window) {
+            return state.get().drainedAt(now, capacity, window);
+        }
+
+        boolean tryAdd(long now, int capacity, Duration window) {
+            while (true) {
+                State current = state.get();
+                double level = current.drainedAt(now, capacity, window) + 1;
+                if (level > capacity) {
+                    return false;
+                }
+                if (state.compareAndSet(current, new State(level, now))) {
+                    return true;
+                }
+            }
+        }
+
+        void remove(long now, int capacity, Duration window) {
+            state.updateAndGet(current -> new State(Math.max(0, current.drainedAt(now, capacity, window) - 1), now));
+        }
+    }
+
+    private record State(double level, long updatedAt) {
+
+        double drainedAt(long now, int capacity, Duration window) {
+            double drained = (double) (now - updatedAt) * capacity / window.toMillis();
+            return Math.max(0, level - drained);
+        }
+    }
+}
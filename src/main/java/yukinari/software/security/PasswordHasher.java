@@ -0,0 +1,182 @@
+package yukinari.software.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs BCrypt work on its own bounded pool instead of the request threads, so a burst of
+ * logins or password changes cannot take every Tomcat worker.
+ * <p>
+ * When the pool and its queue are full, or a task waits longer than the configured timeout,
+ * the caller gets a {@link PasswordHasherBusyException} (503 with Retry-After) right away.
+ * <p>
+ * The BCrypt cost is calibrated at startup: the largest log rounds, within the configured
+ * bounds, whose hash time on this host stays under <code>app.password-hasher.target-hash-time</code>.
+ */
+@Component
+public class PasswordHasher {
+
+    @Value("${app.password-hasher.threads:0}")
+    private int threads;
+
+    @Value("${app.password-hasher.queue-capacity:64}")
+    private int queueCapacity;
+
+    @Value("${app.password-hasher.timeout:5s}")
+    private Duration timeout;
+
+    @Value("${app.password-hasher.retry-after:1s}")
+    private Duration retryAfter;
+
+    @Value("${app.password-hasher.target-hash-time:100ms}")
+    private Duration targetHashTime;
+
+    @Value("${app.password-hasher.min-log-rounds:10}")
+    private int minLogRounds;
+
+    @Value("${app.password-hasher.max-log-rounds:16}")
+    private int maxLogRounds;
+
+    private int logRounds;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private ThreadPoolExecutor executor;
+
+    private Timer hashTimer;
+
+    private Timer rehashTimer;
+
+    private Timer checkTimer;
+
+    private Counter rejected;
+
+    @PostConstruct
+    void start() {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        logRounds = calibrate();
+
+        hashTimer = meterRegistry.timer("password.hasher.duration", "operation", "hash");
+        rehashTimer = meterRegistry.timer("password.hasher.duration", "operation", "rehash");
+        checkTimer = meterRegistry.timer("password.hasher.duration", "operation", "check");
+        rejected = meterRegistry.counter("password.hasher.rejected");
+        Gauge.builder("password.hasher.queue.size", executor, e -> e.getQueue().size()).register(meterRegistry);
+        Gauge.builder("password.hasher.active", executor, ThreadPoolExecutor::getActiveCount).register(meterRegistry);
+        Gauge.builder("password.hasher.log.rounds", this, PasswordHasher::getLogRounds).register(meterRegistry);
+    }
+
+    // each extra log round doubles the work, so one timing at the minimum cost is enough
+    private int calibrate() {
+        String salt = BCrypt.gensalt(minLogRounds);
+        BCrypt.hashpw("calibration", salt);
+
+        long elapsed = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            BCrypt.hashpw("calibration", salt);
+            elapsed = Math.min(elapsed, System.nanoTime() - start);
+        }
+
+        int rounds = minLogRounds;
+        while (rounds < maxLogRounds && elapsed * 2 <= targetHashTime.toNanos()) {
+            elapsed *= 2;
+            rounds++;
+        }
+        return rounds;
+    }
+
+    public int getLogRounds() {
+        return logRounds;
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    public String hash(String password) {
+        return execute(hashTimer, () -> BCrypt.hashpw(password, BCrypt.gensalt(logRounds)));
+    }
+
+    /**
+     * Whether the hash was made with a different cost than the calibrated one.
+     */
+    public boolean needsRehash(String hashed) {
+        // $2a$10$... or $2$10$...
+        int off = hashed.charAt(3) == '$' ? 4 : 3;
+        try {
+            return Integer.parseInt(hashed.substring(off, off + 2)) != logRounds;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Hashes the password in the background and hands the result to the callback. When the
+     * pool is busy nothing happens, the next login will try again. Timed as operation=rehash,
+     * apart from the hashes callers wait for.
+     */
+    public void rehash(String password, Consumer<String> callback) {
+        try {
+            executor.execute(() -> callback.accept(rehashTimer.record(
+                    () -> BCrypt.hashpw(password, BCrypt.gensalt(logRounds)))));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+        }
+    }
+
+    public boolean check(String password, String hashed) {
+        return execute(checkTimer, () -> BCrypt.checkpw(password, hashed));
+    }
+
+    private <T> T execute(Timer timer, Callable<T> task) {
+        Future<T> future;
+        try {
+            future = executor.submit(() -> timer.recordCallable(task));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new PasswordHasherBusyException(retryAfter);
+        }
+
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            rejected.increment();
+            throw new PasswordHasherBusyException(retryAfter);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new PasswordHasherBusyException(retryAfter);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package yukinari.software.security;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Issues and verifies self-contained access tokens of the form
+ * <code>keyId.payload.signature</code>, where payload is the base64url encoding of
+ * <code>expiredAt:username</code> and signature is HMAC-SHA256 over <code>keyId.payload</code>.
+ * <p>
+ * Only used when <code>app.token.mode=signed</code>. Several keys can be configured at once
+ * (<code>app.token.signing-keys=id:base64secret,...</code>); new tokens are signed with
+ * <code>app.token.active-key-id</code> and any configured key is accepted, so a key can be
+ * rotated by adding the new one, switching the active id, and removing the old one once its
+ * tokens have expired.
+ * <p>
+ * Revoked tokens are kept in memory until they expire. The revocation list is local to this
+ * node.
+ */
+@Component
+public class SignedTokenService {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    @Value("${app.token.mode:opaque}")
+    private String mode;
+
+    @Value("${app.token.signing-keys:}")
+    private String signingKeys;
+
+    @Value("${app.token.active-key-id:}")
+    private String activeKeyId;
+
+    private final Map<String, SecretKeySpec> keys = new HashMap<>();
+
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void loadKeys() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        for (String entry : signingKeys.split(",")) {
+            String[] parts = entry.trim().split(":", 2);
+            if (parts.length != 2 || parts[0].isBlank() || parts[0].contains(".")) {
+                throw new IllegalStateException("Invalid app.token.signing-keys entry: " + parts[0]);
+            }
+            keys.put(parts[0], new SecretKeySpec(Base64.getDecoder().decode(parts[1]), ALGORITHM));
+        }
+
+        if (!keys.containsKey(activeKeyId)) {
+            throw new IllegalStateException("app.token.active-key-id does not match any signing key");
+        }
+    }
+
+    public boolean isEnabled() {
+        return "signed".equalsIgnoreCase(mode);
+    }
+
+    /**
+     * Whether the token has the signed format, regardless of whether it verifies. Opaque
+     * tokens issued before switching modes are plain UUIDs and never contain a dot.
+     */
+    public boolean isSigned(String token) {
+        return token != null && token.indexOf('.') > 0;
+    }
+
+    public String issue(String username, long expiredAt) {
+        String payload = ENCODER.encodeToString((expiredAt + ":" + username).getBytes(StandardCharsets.UTF_8));
+        String signed = activeKeyId + "." + payload;
+        return signed + "." + ENCODER.encodeToString(sign(keys.get(activeKeyId), signed));
+    }
+
+    /**
+     * Returns the claims of a token whose signature is valid, that is not expired and has not
+     * been revoked.
+     */
+    public Optional<Claims> verify(String token) {
+        int first = token.indexOf('.');
+        int last = token.lastIndexOf('.');
+        if (first <= 0 || last == first) {
+            return Optional.empty();
+        }
+
+        SecretKeySpec key = keys.get(token.substring(0, first));
+        if (key == null) {
+            return Optional.empty();
+        }
+
+        try {
+            byte[] signature = DECODER.decode(token.substring(last + 1));
+            if (!MessageDigest.isEqual(signature, sign(key, token.substring(0, last)))) {
+                return Optional.empty();
+            }
+
+            String payload = new String(DECODER.decode(token.substring(first + 1, last)), StandardCharsets.UTF_8);
+            int separator = payload.indexOf(':');
+            long expiredAt = Long.parseLong(payload.substring(0, separator));
+
+            if (expiredAt < System.currentTimeMillis() || revoked.containsKey(token)) {
+                return Optional.empty();
+            }
+            return Optional.of(new Claims(payload.substring(separator + 1), expiredAt));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return Optional.empty();
+        }
+    }
+
+    public void revoke(String token, long expiredAt) {
+        long now = System.currentTimeMillis();
+        revoked.values().removeIf(expiry -> expiry < now);
+        revoked.put(token, expiredAt);
+    }
+
+    private byte[] sign(SecretKeySpec key, String value) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(value.getBytes(StandardCharsets.US_ASCII));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public record Claims(String username, long expiredAt) {
+    }
+}
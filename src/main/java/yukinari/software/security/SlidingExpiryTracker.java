@@ -0,0 +1,95 @@
+package yukinari.software.security;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sliding token expiry without an UPDATE per request. Activity only moves the expiry in
+ * memory; the newest expiry per token is written back in one batch every flush interval and
+ * on shutdown.
+ * <p>
+ * A node that dies loses at most one flush interval of extensions, and since the persisted
+ * expiry was still valid when the activity happened, tokens fall back to that value rather
+ * than expiring early.
+ */
+@Slf4j
+@Component
+public class SlidingExpiryTracker {
+
+    @Value("${app.token.sliding-expiry.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.token.ttl:P30D}")
+    private Duration ttl;
+
+    @Value("${app.token.sliding-expiry.batch-size:500}")
+    private int batchSize;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final Map<String, Long> pending = new ConcurrentHashMap<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records activity on the token and returns its new expiry.
+     */
+    public long touch(String token) {
+        long expiredAt = System.currentTimeMillis() + ttl.toMillis();
+        return pending.merge(token, expiredAt, Math::max);
+    }
+
+    /**
+     * The expiry not yet written to the database, or 0 when there is none.
+     */
+    public long pendingExpiry(String token) {
+        return pending.getOrDefault(token, 0L);
+    }
+
+    public void forget(String token) {
+        if (token != null) {
+            pending.remove(token);
+        }
+    }
+
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${app.token.sliding-expiry.flush-interval:PT30S}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> batch = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : pending.entrySet()) {
+            batch.add(new Object[]{entry.getValue(), entry.getKey(), entry.getValue()});
+        }
+
+        //never shorten an expiry, a newer login or flush may already have moved it further
+        jdbcTemplate.batchUpdate(
+                "UPDATE user_sessions SET expired_at = ? WHERE token = ? AND expired_at < ?",
+                batch, batchSize,
+                (statement, row) -> {
+                    statement.setLong(1, (Long) row[0]);
+                    statement.setString(2, (String) row[1]);
+                    statement.setLong(3, (Long) row[2]);
+                });
+
+        //keep entries touched again while flushing for the next round
+        batch.forEach(row -> pending.remove((String) row[1], row[0]));
+        log.debug("Flushed {} token expiry extensions", batch.size());
+    }
+}
@@ -0,0 +1,264 @@
+package yukinari.software.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import yukinari.software.entity.User;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache of token to authenticated user, so that repeated calls with the same
+ * X-API-TOKEN do not hit the database on every request.
+ * <p>
+ * An entry lives until the configured ttl or the token expiry, whichever comes first.
+ * Callers get a copy of the cached user, never the cached instance itself.
+ * <p>
+ * Reads take no lock. When the cache grows past its size, one writer drops the expired entries
+ * and then the least recently used tenth, by an access time that is refreshed at most once a
+ * second per entry.
+ * <p>
+ * A load takes a {@link #generation()} before it reads the session and hands it back to
+ * {@link #put}. The user is not cached when that token or user was invalidated after the
+ * generation was taken; invalidations of other tokens and users do not matter.
+ */
+@Component
+public class TokenCache {
+
+    private static final long ACCESS_PRECISION_MILLIS = 1000;
+
+    @Value("${app.token-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.token-cache.max-size:10000}")
+    private int maxSize;
+
+    @Value("${app.token-cache.ttl:60s}")
+    private Duration ttl;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong clock = new AtomicLong();
+
+    // generation of the last invalidation of a token or user
+    private final ConcurrentHashMap<String, Long> invalidatedTokens = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Long> invalidatedUsers = new ConcurrentHashMap<>();
+
+    // invalidations up to this generation were forgotten, loads older than it are not cached
+    private final AtomicLong forgotten = new AtomicLong();
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private Counter hits;
+
+    private Counter misses;
+
+    private Counter sizeEvictions;
+
+    private Counter expiredEvictions;
+
+    @PostConstruct
+    void registerMetrics() {
+        hits = meterRegistry.counter("token.cache.requests", "result", "hit");
+        misses = meterRegistry.counter("token.cache.requests", "result", "miss");
+        sizeEvictions = meterRegistry.counter("token.cache.evictions", "cause", "size");
+        expiredEvictions = meterRegistry.counter("token.cache.evictions", "cause", "expired");
+        Gauge.builder("token.cache.size", this, TokenCache::size).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long generation() {
+        return clock.get();
+    }
+
+    public User get(String token) {
+        if (!enabled) {
+            return null;
+        }
+
+        Entry entry = entries.get(token);
+        long now = System.currentTimeMillis();
+        if (entry != null && entry.expiresAt < now) {
+            if (entries.remove(token, entry)) {
+                expiredEvictions.increment();
+            }
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        if (now - entry.accessedAt > ACCESS_PRECISION_MILLIS) {
+            entry.accessedAt = now;
+        }
+        hits.increment();
+        return copyOf(entry.user);
+    }
+
+    public void put(String token, User user, long loadedAtGeneration) {
+        if (!enabled || invalidatedSince(token, user.getUsername(), loadedAtGeneration)) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(copyOf(user), Math.min(now + ttl.toMillis(), user.getTokenExpiredAt()), now);
+        entries.put(token, entry);
+
+        //an invalidation between the check and the put may have missed the new entry
+        if (invalidatedSince(token, user.getUsername(), loadedAtGeneration)) {
+            entries.remove(token, entry);
+            return;
+        }
+
+        if (entries.size() > maxSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Drops the token now and again once the surrounding transaction commits, so a reader
+     * that loaded the row before the commit cannot put a stale user back.
+     */
+    public void invalidate(String token) {
+        if (!enabled || Objects.isNull(token)) {
+            return;
+        }
+
+        remove(token);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    remove(token);
+                }
+            });
+        }
+    }
+
+    /**
+     * Drops every cached token of the user, now and after the surrounding transaction commits.
+     */
+    public void invalidateUser(String username) {
+        if (!enabled) {
+            return;
+        }
+
+        removeUser(username);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    removeUser(username);
+                }
+            });
+        }
+    }
+
+    private void removeUser(String username) {
+        record(invalidatedUsers, username);
+        entries.values().removeIf(entry -> entry.user.getUsername().equals(username));
+    }
+
+    private void remove(String token) {
+        record(invalidatedTokens, token);
+        entries.remove(token);
+    }
+
+    //the generation is recorded before the entry is removed, see put
+    private void record(Map<String, Long> invalidations, String key) {
+        invalidations.merge(key, clock.incrementAndGet(), Math::max);
+
+        if (invalidations.size() > maxSize) {
+            invalidations.clear();
+            //every generation that was cleared is taken before this read
+            forgotten.accumulateAndGet(clock.get(), Math::max);
+        }
+    }
+
+    private boolean invalidatedSince(String token, String username, long generation) {
+        return generation < forgotten.get()
+                || invalidatedTokens.getOrDefault(token, 0L) > generation
+                || invalidatedUsers.getOrDefault(username, 0L) > generation;
+    }
+
+    private void evict() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+
+        try {
+            long now = System.currentTimeMillis();
+            entries.forEach((token, entry) -> {
+                if (entry.expiresAt < now && entries.remove(token, entry)) {
+                    expiredEvictions.increment();
+                }
+            });
+
+            int excess = entries.size() - maxSize;
+            if (excess <= 0) {
+                return;
+            }
+
+            //evicting a tenth at once keeps the sort off most puts
+            List<Map.Entry<String, Entry>> oldest = new ArrayList<>(entries.entrySet());
+            oldest.sort(Comparator.comparingLong(candidate -> candidate.getValue().accessedAt));
+            int count = Math.min(oldest.size(), excess + maxSize / 10);
+            for (int i = 0; i < count; i++) {
+                if (entries.remove(oldest.get(i).getKey(), oldest.get(i).getValue())) {
+                    sizeEvictions.increment();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private int size() {
+        return entries.size();
+    }
+
+    private User copyOf(User user) {
+        return new User(user.getUsername(), user.getPassword(), user.getName(),
+                user.getToken(), user.getTokenExpiredAt(), null);
+    }
+
+    private static final class Entry {
+
+        private final User user;
+
+        private final long expiresAt;
+
+        private volatile long accessedAt;
+
+        private Entry(User user, long expiresAt, long accessedAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+            this.accessedAt = accessedAt;
+        }
+    }
+}
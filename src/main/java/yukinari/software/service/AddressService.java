@@ -1,8 +1,18 @@
 package yukinari.software.service;
 
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.Predicate;
 import jakarta.transaction.Transactional;
+import jakarta.validation.ConstraintViolationException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 import yukinari.software.entity.Address;
@@ -10,12 +20,23 @@ import yukinari.software.entity.Contact;
 import yukinari.software.entity.User;
 import yukinari.software.model.AddressResponse;
 import yukinari.software.model.CreateAddressRequest;
+import yukinari.software.model.CursorPage;
+import yukinari.software.model.ListAddressRequest;
+import yukinari.software.model.NearbyAddressRequest;
+import yukinari.software.model.NearbyContactResponse;
 import yukinari.software.model.UpdateAddressRequest;
 import yukinari.software.repository.AddressRepository;
 import yukinari.software.repository.ContactRepository;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 @Service
 public class AddressService {
@@ -29,6 +50,21 @@ public class AddressService {
     @Autowired
     private ValidationService validationService;
 
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private IdGenerator idGenerator;
+
+    @Value("${app.address-bulk.max-size:5000}")
+    private int bulkMaxSize;
+
+    @Value("${app.address-nearby.max-cells:16}")
+    private int nearbyMaxCells;
+
+    @Value("${app.address-nearby.max-candidates:10000}")
+    private int nearbyMaxCandidates;
+
     @Transactional
     public AddressResponse create (User user, CreateAddressRequest request) {
         validationService.validate(request);
@@ -38,57 +74,138 @@ public class AddressService {
         );
 
         Address address = new Address();
-        address.setId(UUID.randomUUID().toString());
+        address.setId(idGenerator.next());
         address.setCity(request.getCity());
         address.setCountry(request.getCountry());
         address.setStreet(request.getStreet());
         address.setProvince(request.getProvince());
         address.setContact(contact);
         address.setPostalCode(request.getPostalCode());
+        setLocation(address, request.getLatitude(), request.getLongitude());
 
         addressRepository.save(address);
 
         return toAddressResponse(address);
     }
 
+    /**
+     * Creates all the addresses of the request or none of them, with one ownership check and
+     * one batch insert.
+     */
     @Transactional
-    public AddressResponse get (User user, String idContact, String idAddress) {
-        Contact contact = contactRepository.findFirstByUserAndId(user, idContact).orElseThrow(
-                () -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "contact not found")
-        );
+    public List<AddressResponse> createAll(User user, String contactId, List<CreateAddressRequest> requests) {
+        if (requests.size() > bulkMaxSize) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + bulkMaxSize + " addresses per request");
+        }
 
-        Address address = addressRepository.findFirstByContactAndId(contact, idAddress).orElseThrow(
-                () -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "address not found")
-        );
+        List<Address> addresses = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            CreateAddressRequest request = requests.get(i);
+            request.setContactId(contactId);
 
-        return toAddressResponse(address);
+            Address address = new Address();
+            address.setId(idGenerator.next());
+            address.setCity(request.getCity());
+            address.setCountry(request.getCountry());
+            address.setStreet(request.getStreet());
+            address.setProvince(request.getProvince());
+            address.setPostalCode(request.getPostalCode());
+            address.setVersion(0L);
+
+            try {
+                validationService.validate(request);
+                setLocation(address, request.getLatitude(), request.getLongitude());
+            } catch (ConstraintViolationException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Address " + (i + 1) + ": " + e.getMessage());
+            } catch (ResponseStatusException e) {
+                throw new ResponseStatusException(e.getStatusCode(), "Address " + (i + 1) + ": " + e.getReason());
+            }
+            addresses.add(address);
+        }
+
+        if (!contactRepository.existsByUserAndId(user, contactId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "contact not found");
+        }
+
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO addresses (id, street, city, province, country, postal_code, latitude, longitude, geohash, contact_id, version) " +
+                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0)",
+                addresses, 1000,
+                (statement, address) -> {
+                    statement.setString(1, address.getId());
+                    statement.setString(2, address.getStreet());
+                    statement.setString(3, address.getCity());
+                    statement.setString(4, address.getProvince());
+                    statement.setString(5, address.getCountry());
+                    statement.setString(6, address.getPostalCode());
+                    statement.setObject(7, address.getLatitude());
+                    statement.setObject(8, address.getLongitude());
+                    statement.setString(9, address.getGeohash());
+                    statement.setString(10, contactId);
+                });
+
+        return addresses.stream().map(AddressService::toAddressResponse).toList();
     }
 
     @Transactional
-    public AddressResponse update (User user, UpdateAddressRequest request) {
+    public AddressResponse get (User user, String idContact, String idAddress) {
+        Address address = findAddress(user, idContact, idAddress, HttpStatus.BAD_REQUEST,
+                "contact not found", "address not found");
 
-        validationService.validate(request);
+        return toAddressResponse(address);
+    }
 
-        Contact contact = contactRepository.findFirstByUserAndId(user, request.getContactId()).orElseThrow(
-                () -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "contact not found")
+    /**
+     * Loads the address only if it belongs to the user's contact. The contact is looked up on
+     * its own only when that fails, to tell which of the two is missing.
+     */
+    private Address findAddress(User user, String contactId, String addressId, HttpStatus status,
+                                String contactNotFound, String addressNotFound) {
+        return addressRepository.findFirstByIdAndContactIdAndContactUser(addressId, contactId, user).orElseThrow(
+                () -> new ResponseStatusException(status,
+                        contactRepository.existsByUserAndId(user, contactId) ? addressNotFound : contactNotFound)
         );
+    }
 
-        Address address = addressRepository.findFirstByContactAndId(contact, request.getAddressId()).orElseThrow(
-                () -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "address not found")
-        );
+    /**
+     * Writes the address with one conditional UPDATE instead of a load and a save. With the
+     * version the client read, the update fails with 409 when the address has changed since;
+     * without it the last write wins and the new version is read back.
+     */
+    @Transactional
+    public AddressResponse update (User user, UpdateAddressRequest request) {
+
+        validationService.validate(request);
 
+        Address address = new Address();
+        address.setId(request.getAddressId());
         address.setCountry(request.getCountry());
         address.setStreet(request.getStreet());
         address.setProvince(request.getProvince());
         address.setCity(request.getCity());
         address.setPostalCode(request.getPostalCode());
-        addressRepository.save(address);
+        setLocation(address, request.getLatitude(), request.getLongitude());
+
+        int updated = addressRepository.update(user, request.getContactId(), request.getAddressId(), request.getVersion(),
+                address.getStreet(), address.getCity(), address.getProvince(), address.getCountry(),
+                address.getPostalCode(), address.getLatitude(), address.getLongitude(), address.getGeohash());
+        if (updated == 0) {
+            //throws when the contact or the address is missing, so what is left is a newer version
+            findAddress(user, request.getContactId(), request.getAddressId(), HttpStatus.BAD_REQUEST,
+                    "contact not found", "address not found");
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "address has been modified");
+        }
+
+        address.setVersion(Objects.nonNull(request.getVersion())
+                ? request.getVersion() + 1
+                : findAddress(user, request.getContactId(), request.getAddressId(), HttpStatus.BAD_REQUEST,
+                        "contact not found", "address not found").getVersion());
 
         return toAddressResponse(address);
 
     }
 
-    private AddressResponse toAddressResponse (Address address) {
+    static AddressResponse toAddressResponse (Address address) {
         return AddressResponse.builder()
                 .id(address.getId())
                 .street(address.getStreet())
@@ -96,26 +213,212 @@ public class AddressService {
                 .province(address.getProvince())
                 .country(address.getCountry())
                 .postalCode(address.getPostalCode())
+                .latitude(address.getLatitude())
+                .longitude(address.getLongitude())
+                .version(address.getVersion())
                 .build();
     }
 
+    private void setLocation(Address address, Double latitude, Double longitude) {
+        if (Objects.isNull(latitude) != Objects.isNull(longitude)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "latitude and longitude must be given together");
+        }
+
+        address.setLatitude(latitude);
+        address.setLongitude(longitude);
+        address.setGeohash(Objects.isNull(latitude) ? null : GeoHash.encode(latitude, longitude, GeoHash.PRECISION));
+    }
+
     @Transactional
     public void remove(User user, String contactId, String addressId){
-        Contact contact = contactRepository.findFirstByUserAndId(user, contactId)
-                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Contact is not found"));
-
-        Address address = addressRepository.findFirstByContactAndId(contact, addressId)
-                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Address is not found"));
+        Address address = findAddress(user, contactId, addressId, HttpStatus.NOT_FOUND,
+                "Contact is not found", "Address is not found");
 
         addressRepository.delete(address);
     }
 
     @Transactional
     public List<AddressResponse> list (User user, String contactId) {
-        Contact contact = contactRepository.findFirstByUserAndId(user, contactId)
-                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Contact is not found"));
+        //an empty list only needs the contact checked when there is nothing to return
+        List<Address> addresses = addressRepository.findAllByContactIdAndContactUser(contactId, user);
+        if (addresses.isEmpty() && !contactRepository.existsByUserAndId(user, contactId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Contact is not found");
+        }
+
+        return addresses.stream().map(AddressService::toAddressResponse).toList();
+    }
+
+    @Transactional
+    public Page<AddressResponse> list(User user, String contactId, ListAddressRequest request) {
+        validationService.validate(request);
+
+        Page<Address> addresses = addressRepository.findAllByContactIdAndContactUser(contactId, user,
+                PageRequest.of(request.getPage(), request.getSize(), Sort.by("id")));
+        if (addresses.isEmpty() && !contactRepository.existsByUserAndId(user, contactId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Contact is not found");
+        }
+
+        return addresses.map(AddressService::toAddressResponse);
+    }
+
+    /**
+     * Keyset pagination in id order, the cursor holds the last id of the previous page.
+     */
+    @Transactional
+    public CursorPage<AddressResponse> listByCursor(User user, String contactId, ListAddressRequest request) {
+        validationService.validate(request);
+
+        int size = request.getSize();
+        String after;
+        try {
+            after = new String(Base64.getUrlDecoder().decode(request.getCursor()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
+
+        //one extra row tells whether there is a next page
+        List<Address> addresses = addressRepository.findAllByContactIdAndContactUserAndIdGreaterThanOrderByIdAsc(
+                contactId, user, after, Limit.of(size + 1));
+        if (addresses.isEmpty() && !contactRepository.existsByUserAndId(user, contactId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Contact is not found");
+        }
+
+        boolean hasNext = addresses.size() > size;
+        if (hasNext) {
+            addresses = addresses.subList(0, size);
+        }
+
+        String nextCursor = hasNext
+                ? Base64.getUrlEncoder().withoutPadding().encodeToString(
+                        addresses.get(addresses.size() - 1).getId().getBytes(StandardCharsets.UTF_8))
+                : null;
+
+        return CursorPage.<AddressResponse>builder()
+                .content(addresses.stream().map(AddressService::toAddressResponse).toList())
+                .size(size)
+                .nextCursor(nextCursor)
+                .build();
+    }
+
+    /**
+     * The user's contacts with an address in the circle or box, nearest first, each with its
+     * nearest address.
+     * <p>
+     * The area is covered by a few geohash cells and only the addresses in those cells are
+     * loaded, one index range per cell. The exact distance and bounds are checked here on
+     * those candidates only.
+     * <p>
+     * A circle is searched from a sixteenth of its radius outwards, four times wider each round,
+     * until enough contacts are found: every contact nearer than the searched radius is then
+     * known, so a wide radius over a dense area loads only what the page needs.
+     */
+    @Transactional
+    public List<NearbyContactResponse> nearby(User user, NearbyAddressRequest request) {
+        validationService.validate(request);
+
+        boolean circle = Objects.nonNull(request.getLatitude()) && Objects.nonNull(request.getLongitude())
+                && Objects.nonNull(request.getRadius());
+        boolean box = Objects.nonNull(request.getMinLatitude()) && Objects.nonNull(request.getMinLongitude())
+                && Objects.nonNull(request.getMaxLatitude()) && Objects.nonNull(request.getMaxLongitude());
+        if (circle == box) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Either latitude, longitude and radius or a bounding box is required");
+        }
+
+        Map<String, NearbyContactResponse> nearest;
+        if (circle) {
+            double radius = request.getRadius() / 16;
+            while (true) {
+                nearest = nearbyInCircle(user, request.getLatitude(), request.getLongitude(), radius);
+                if (nearest.size() >= request.getSize() || radius >= request.getRadius()) {
+                    break;
+                }
+                radius = Math.min(radius * 4, request.getRadius());
+            }
+        } else {
+            if (request.getMinLatitude() > request.getMaxLatitude() || request.getMinLongitude() > request.getMaxLongitude()) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid bounding box");
+            }
+
+            nearest = nearby(user, request.getMinLatitude(), request.getMinLongitude(),
+                    request.getMaxLatitude(), request.getMaxLongitude(),
+                    (request.getMinLatitude() + request.getMaxLatitude()) / 2,
+                    (request.getMinLongitude() + request.getMaxLongitude()) / 2,
+                    Double.MAX_VALUE);
+        }
+
+        return nearest.values().stream()
+                .sorted(Comparator.comparingDouble(NearbyContactResponse::getDistance))
+                .limit(request.getSize())
+                .toList();
+    }
+
+    private Map<String, NearbyContactResponse> nearbyInCircle(User user, double latitude, double longitude, double radius) {
+        double latitudeDegrees = GeoHash.latitudeDegrees(radius);
+        double minLatitude = Math.max(-90, latitude - latitudeDegrees);
+        double maxLatitude = Math.min(90, latitude + latitudeDegrees);
+
+        //a degree of longitude is shortest on the edge nearest to the pole
+        double longitudeDegrees = GeoHash.longitudeDegrees(radius, Math.max(Math.abs(minLatitude), Math.abs(maxLatitude)));
+        double minLongitude = longitude - longitudeDegrees;
+        double maxLongitude = longitude + longitudeDegrees;
+
+        //a circle across the antimeridian searches every longitude instead of two boxes
+        if (minLongitude < -180 || maxLongitude > 180) {
+            minLongitude = -180;
+            maxLongitude = 180;
+        }
+
+        return nearby(user, minLatitude, minLongitude, maxLatitude, maxLongitude, latitude, longitude, radius);
+    }
+
+    /**
+     * Contacts with an address in the box and within the distance of the center, by contact id.
+     */
+    private Map<String, NearbyContactResponse> nearby(User user, double minLatitude, double minLongitude,
+                                                      double maxLatitude, double maxLongitude,
+                                                      double centerLatitude, double centerLongitude, double maxDistance) {
+        Set<String> cells = GeoHash.cover(minLatitude, minLongitude, maxLatitude, maxLongitude, nearbyMaxCells);
+        Specification<Address> specification = (root, query, builder) -> {
+            @SuppressWarnings("unchecked")
+            Join<Address, Contact> contact = (Join<Address, Contact>) root.<Address, Contact>fetch("contact");
+            Predicate[] prefixes = cells.stream()
+                    .map(cell -> builder.like(root.get("geohash"), cell + "%"))
+                    .toArray(Predicate[]::new);
+
+            return builder.and(builder.equal(contact.get("user"), user), builder.or(prefixes));
+        };
+
+        List<Address> candidates = addressRepository.findBy(specification, query -> query
+                .limit(nearbyMaxCandidates + 1)
+                .all());
+        if (candidates.size() > nearbyMaxCandidates) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Too many addresses in the area, narrow the search");
+        }
+
+        Map<String, NearbyContactResponse> nearest = new HashMap<>();
+        for (Address address : candidates) {
+            double latitude = address.getLatitude();
+            double longitude = address.getLongitude();
+            if (latitude < minLatitude || latitude > maxLatitude || longitude < minLongitude || longitude > maxLongitude) {
+                continue;
+            }
+
+            double distance = GeoHash.distance(centerLatitude, centerLongitude, latitude, longitude);
+            if (distance > maxDistance) {
+                continue;
+            }
+
+            NearbyContactResponse current = nearest.get(address.getContact().getId());
+            if (Objects.isNull(current) || distance < current.getDistance()) {
+                nearest.put(address.getContact().getId(), NearbyContactResponse.builder()
+                        .contact(ContactService.toContactResponse(address.getContact()))
+                        .address(toAddressResponse(address))
+                        .distance(distance)
+                        .build());
+            }
+        }
 
-        List<Address> addresses = addressRepository.findAllByContact(contact);
-        return addresses.stream().map(this::toAddressResponse).toList();
+        return nearest;
     }
 }
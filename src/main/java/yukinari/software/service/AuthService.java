@@ -2,15 +2,25 @@ package yukinari.software.service;
 
 import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.server.ResponseStatusException;
 import yukinari.software.entity.User;
 import yukinari.software.model.LoginUserRequest;
 import yukinari.software.model.TokenResponse;
 import yukinari.software.repository.UserRepository;
-import yukinari.software.security.BCrypt;
+import yukinari.software.repository.UserSessionRepository;
+import yukinari.software.security.LoginThrottle;
+import yukinari.software.security.PasswordHasher;
+import yukinari.software.security.SignedTokenService;
+import yukinari.software.security.SlidingExpiryTracker;
+import yukinari.software.security.TokenCache;
 
+import java.time.Duration;
 import java.util.UUID;
 
 @Service
@@ -19,47 +29,148 @@ public class AuthService {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private UserSessionRepository userSessionRepository;
+
     @Autowired
     private ValidationService validationService;
 
-    @Transactional
-    public TokenResponse login(LoginUserRequest request) {
+    @Autowired
+    private TokenCache tokenCache;
+
+    @Autowired
+    private PasswordHasher passwordHasher;
+
+    @Autowired
+    private SignedTokenService signedTokenService;
+
+    @Autowired
+    private LoginThrottle loginThrottle;
+
+    @Autowired
+    private SlidingExpiryTracker slidingExpiryTracker;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${app.token.ttl:P30D}")
+    private Duration tokenTtl;
+
+    /**
+     * Not transactional: the password hash is read with a connection that goes back to the pool
+     * right away, so a login waiting for the hasher never holds one. The session is written in
+     * its own short transaction once the password has been checked.
+     */
+    public TokenResponse login(LoginUserRequest request, String clientAddress) {
         //validate request
         validationService.validate(request);
 
-        //check in database if name already registered
-        User user = userRepository.findById(request.getUsername())
-                .orElseThrow(() -> new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Username or password wrong"));
+        //reserve a failure before any database or bcrypt work, so parallel guesses count at once
+        if (!loginThrottle.tryAcquire(request.getUsername(), clientAddress)) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many failed login attempts, try again later");
+        }
 
-        //validate password
-        if (BCrypt.checkpw(request.getPassword(), user.getPassword())) {
-            //if login success create token and token expired
-            user.setToken(UUID.randomUUID().toString());
-            user.setTokenExpiredAt(expired30Days());
-            userRepository.save(user);
+        User user;
+        boolean matches;
+        try {
+            //plain JDBC, a repository query would keep the request's JPA session and its connection
+            user = jdbcTemplate.query("SELECT username, password FROM users WHERE username = ?",
+                    resultSet -> {
+                        if (!resultSet.next()) {
+                            return null;
+                        }
+                        User found = new User();
+                        found.setUsername(resultSet.getString("username"));
+                        found.setPassword(resultSet.getString("password"));
+                        return found;
+                    },
+                    request.getUsername());
 
+            matches = user != null && passwordHasher.check(request.getPassword(), user.getPassword());
+        } catch (RuntimeException e) {
+            //a busy hasher or database is not a wrong password
+            loginThrottle.release(request.getUsername(), clientAddress);
+            throw e;
+        }
+
+        if (!matches) {
+            //login failed, the reservation stays as the failure
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Username or password wrong");
+        }
+
+        loginThrottle.succeeded(request.getUsername(), clientAddress);
+
+        if (passwordHasher.needsRehash(user.getPassword())) {
+            rehashAfterCommit(user.getUsername(), request.getPassword(), user.getPassword());
+        }
+
+        //signed tokens carry their own expiry, nothing is stored
+        if (signedTokenService.isEnabled()) {
+            Long expiredAt = tokenExpiredAt();
             return TokenResponse.builder()
-                    .token(user.getToken())
-                    .expiredAt(user.getTokenExpiredAt())
+                    .token(signedTokenService.issue(user.getUsername(), expiredAt))
+                    .expiredAt(expiredAt)
                     .build();
+        }
 
-        } else {
-            //login failed
-            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Username or password wrong");
+        //if login success create a new session, sessions on other devices stay valid
+        String token = UUID.randomUUID().toString();
+        Long expiredAt = tokenExpiredAt();
+        userSessionRepository.insert(token, user.getUsername(), expiredAt);
+
+        return TokenResponse.builder()
+                .token(token)
+                .expiredAt(expiredAt)
+                .build();
+    }
+
+    //upgrade the stored hash to the current cost once this login is committed
+    private void rehashAfterCommit(String username, String password, String oldHash) {
+        Runnable rehash = () -> passwordHasher.rehash(password,
+                newHash -> userRepository.updatePassword(username, oldHash, newHash));
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            rehash.run();
+            return;
         }
 
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                rehash.run();
+            }
+        });
     }
 
-    //example method expaired
-    private Long expired30Days (){
-        return System.currentTimeMillis() + (1000 * 60 * 60 * 24 * 30);
+    private Long tokenExpiredAt (){
+        return System.currentTimeMillis() + tokenTtl.toMillis();
     }
 
     @Transactional
     public void logout (User user) {
-        user.setToken(null);
-        user.setTokenExpiredAt(null);
-        userRepository.save(user);
+        slidingExpiryTracker.forget(user.getToken());
+
+        if (signedTokenService.isSigned(user.getToken())) {
+            signedTokenService.revoke(user.getToken(), user.getTokenExpiredAt());
+            return;
+        }
+
+        tokenCache.invalidate(user.getToken());
+        userSessionRepository.deleteByToken(user.getToken());
+    }
+
+    /**
+     * Ends every stored session of the user. Signed tokens are not stored, so only the one
+     * used for this request is revoked, the others stay valid until they expire.
+     */
+    @Transactional
+    public void logoutAll (User user) {
+        if (signedTokenService.isSigned(user.getToken())) {
+            signedTokenService.revoke(user.getToken(), user.getTokenExpiredAt());
+        }
+
+        tokenCache.invalidateUser(user.getUsername());
+        userSessionRepository.deleteByUsername(user.getUsername());
     }
 
 }
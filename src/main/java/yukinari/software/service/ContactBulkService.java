@@ -0,0 +1,209 @@
+package yukinari.software.service;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Root;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+import yukinari.software.entity.Contact;
+import yukinari.software.entity.User;
+import yukinari.software.model.BulkContactFilter;
+import yukinari.software.model.BulkDeleteContactRequest;
+import yukinari.software.model.BulkOperationResponse;
+import yukinari.software.model.BulkUpdateContactRequest;
+import yukinari.software.model.SearchContactRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Deletes or updates many contacts of a user with set-based statements instead of one request,
+ * and one load and one write, per contact.
+ * <p>
+ * Contacts are selected by a list of ids or by the same filter as the search. They are handled
+ * in chunks of <code>app.contact-bulk.chunk-size</code>, each in its own short transaction, so
+ * a large operation never holds row locks for long. A chunk that has been committed stays
+ * committed even if a later one fails.
+ */
+@Service
+public class ContactBulkService {
+
+    @Value("${app.contact-bulk.chunk-size:500}")
+    private int chunkSize;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private ContactService contactService;
+
+    @Autowired
+    private ValidationService validationService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ContactSearchIndex contactSearchIndex;
+
+    @Autowired
+    private ContactCountCache contactCountCache;
+
+    public BulkOperationResponse delete(User user, BulkDeleteContactRequest request) {
+        int[] affected = new int[2];
+
+        forEachChunk(user, request.getIds(), request.getFilter(), ids -> {
+            String in = placeholders(ids.size());
+            Object[] args = args(user.getUsername(), ids);
+
+            transactionTemplate.executeWithoutResult(status -> {
+                affected[1] += jdbcTemplate.update("DELETE a FROM addresses a JOIN contacts c ON c.id = a.contact_id " +
+                        "WHERE c.username = ? AND c.id IN (" + in + ")", args);
+                contactSearchIndex.removeAll(user.getUsername(), ids);
+                affected[0] += jdbcTemplate.update("DELETE FROM contacts WHERE username = ? AND id IN (" + in + ")", args);
+                contactCountCache.invalidate(user.getUsername());
+            });
+        });
+
+        return BulkOperationResponse.builder()
+                .contacts(affected[0])
+                .addresses(affected[1])
+                .build();
+    }
+
+    public BulkOperationResponse update(User user, BulkUpdateContactRequest request) {
+        validationService.validate(request);
+
+        if (Objects.nonNull(request.getFirstName()) && request.getFirstName().isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "firstName must not be blank");
+        }
+
+        List<String> columns = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        addColumn(columns, values, "first_name", request.getFirstName());
+        addColumn(columns, values, "last_name", request.getLastName());
+        addColumn(columns, values, "email", request.getEmail());
+        addColumn(columns, values, "phone", request.getPhone());
+        if (columns.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Nothing to update");
+        }
+
+        String set = String.join(", ", columns.stream().map(column -> column + " = ?").toList());
+        int[] affected = new int[1];
+
+        forEachChunk(user, request.getIds(), request.getFilter(), ids -> {
+            List<Object> args = new ArrayList<>(values);
+            args.add(user.getUsername());
+            args.addAll(ids);
+
+            transactionTemplate.executeWithoutResult(status -> {
+                affected[0] += jdbcTemplate.update("UPDATE contacts SET " + set + ", version = version + 1" +
+                        " WHERE username = ? AND id IN (" + placeholders(ids.size()) + ")", args.toArray());
+                contactSearchIndex.reindex(user, ids);
+                contactCountCache.invalidate(user.getUsername());
+            });
+        });
+
+        return BulkOperationResponse.builder()
+                .contacts(affected[0])
+                .build();
+    }
+
+    /**
+     * Hands the selected ids to the action one chunk at a time. A filter is walked in id order,
+     * each chunk starting after the last id of the previous one, so rows changed by the action
+     * are never selected twice.
+     */
+    private void forEachChunk(User user, List<String> ids, BulkContactFilter filter, Consumer<List<String>> action) {
+        if (Objects.nonNull(ids) == Objects.nonNull(filter)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Either ids or filter is required");
+        }
+
+        if (Objects.nonNull(ids)) {
+            List<String> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+            for (int from = 0; from < distinct.size(); from += chunkSize) {
+                action.accept(distinct.subList(from, Math.min(from + chunkSize, distinct.size())));
+            }
+            return;
+        }
+
+        //an empty filter would select every contact
+        if (Stream.of(filter.getName(), filter.getEmail(), filter.getPhone())
+                .allMatch(value -> Objects.isNull(value) || value.isBlank())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "filter requires name, email or phone");
+        }
+
+        Specification<Contact> specification = contactService.specification(user, SearchContactRequest.builder()
+                .name(filter.getName())
+                .email(filter.getEmail())
+                .phone(filter.getPhone())
+                .build());
+
+        String last = null;
+        while (true) {
+            String after = last;
+            Specification<Contact> page = Objects.isNull(after)
+                    ? specification
+                    : specification.and((root, query, builder) -> builder.greaterThan(root.<String>get("id"), after));
+
+            List<String> chunk = ids(page);
+            if (chunk.isEmpty()) {
+                return;
+            }
+
+            action.accept(chunk);
+            last = chunk.get(chunk.size() - 1);
+            if (chunk.size() < chunkSize) {
+                return;
+            }
+        }
+    }
+
+    //only the ids, no contact is loaded into the persistence context that spans the request
+    private List<String> ids(Specification<Contact> specification) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<String> query = builder.createQuery(String.class);
+        Root<Contact> root = query.from(Contact.class);
+
+        query.select(root.get("id"))
+                .where(specification.toPredicate(root, query, builder))
+                .orderBy(builder.asc(root.get("id")));
+
+        return entityManager.createQuery(query)
+                .setMaxResults(chunkSize)
+                .getResultList();
+    }
+
+    private void addColumn(List<String> columns, List<Object> values, String column, String value) {
+        if (Objects.nonNull(value)) {
+            columns.add(column);
+            values.add(value);
+        }
+    }
+
+    private String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private Object[] args(String username, List<String> ids) {
+        List<Object> args = new ArrayList<>(ids.size() + 1);
+        args.add(username);
+        args.addAll(ids);
+        return args.toArray();
+    }
+}
@@ -0,0 +1,184 @@
+package yukinari.software.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Total counts of paged contact searches per user and filter, so that turning pages does not
+ * run the same COUNT again.
+ * <p>
+ * Any write to a user's contacts drops all of that user's counts. Writes made by other nodes
+ * are not seen, an entry is trusted for at most the configured ttl.
+ * <p>
+ * A count is taken outside the cache, so a write can commit while it runs. Every user therefore
+ * carries the stamp of its last invalidation, and a count is only kept when that stamp is still
+ * the one read before counting. Stamps come from one clock so that the stamp of a user dropped
+ * from the cache can be covered by the largest one dropped so far.
+ */
+@Component
+public class ContactCountCache {
+
+    @Value("${app.contact-count-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.contact-count-cache.max-users:10000}")
+    private int maxUsers;
+
+    @Value("${app.contact-count-cache.max-filters-per-user:32}")
+    private int maxFiltersPerUser;
+
+    @Value("${app.contact-count-cache.ttl:60s}")
+    private Duration ttl;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final LinkedHashMap<String, Counts> users = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long clock;
+
+    // the largest stamp of a user no longer in the cache, stands in for any user not in it
+    private long forgotten;
+
+    private Counter hits;
+
+    private Counter misses;
+
+    @PostConstruct
+    void registerMetrics() {
+        hits = meterRegistry.counter("contact.count.cache.requests", "result", "hit");
+        misses = meterRegistry.counter("contact.count.cache.requests", "result", "miss");
+        Gauge.builder("contact.count.cache.users", this, ContactCountCache::size).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * The stamp of the user's last invalidation, read before counting and handed to
+     * {@link #put}.
+     */
+    public synchronized long generation(String username) {
+        Counts counts = users.get(username);
+        return counts == null ? forgotten : counts.invalidatedAt;
+    }
+
+    public Long get(String username, String filter) {
+        if (!enabled) {
+            return null;
+        }
+
+        Entry entry;
+        synchronized (this) {
+            Counts counts = users.get(username);
+            entry = counts == null ? null : counts.entries.get(filter);
+            if (entry != null && entry.expiresAt() < System.currentTimeMillis()) {
+                counts.entries.remove(filter);
+                entry = null;
+            }
+        }
+
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return entry.count();
+    }
+
+    public void put(String username, String filter, long count, long loadedAtGeneration) {
+        if (!enabled) {
+            return;
+        }
+
+        Entry entry = new Entry(count, System.currentTimeMillis() + ttl.toMillis());
+
+        synchronized (this) {
+            //the user's contacts were written while counting
+            if (loadedAtGeneration != generation(username)) {
+                return;
+            }
+
+            Counts counts = users.computeIfAbsent(username, key -> new Counts(forgotten));
+            counts.entries.remove(filter);
+            counts.entries.put(filter, entry);
+
+            Iterator<String> filters = counts.entries.keySet().iterator();
+            while (counts.entries.size() > maxFiltersPerUser && filters.hasNext()) {
+                filters.next();
+                filters.remove();
+            }
+
+            trim();
+        }
+    }
+
+    /**
+     * Drops the user's counts now and again once the surrounding transaction commits, so a
+     * count taken before the commit cannot be put back.
+     */
+    public void invalidate(String username) {
+        if (!enabled) {
+            return;
+        }
+
+        remove(username);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    remove(username);
+                }
+            });
+        }
+    }
+
+    //the user stays with an empty map to keep the new stamp
+    private synchronized void remove(String username) {
+        Counts counts = users.computeIfAbsent(username, key -> new Counts(forgotten));
+        counts.entries.clear();
+        counts.invalidatedAt = ++clock;
+        trim();
+    }
+
+    private void trim() {
+        Iterator<Counts> least = users.values().iterator();
+        while (users.size() > maxUsers && least.hasNext()) {
+            forgotten = Math.max(forgotten, least.next().invalidatedAt);
+            least.remove();
+        }
+    }
+
+    private synchronized int size() {
+        return users.size();
+    }
+
+    private static class Counts {
+
+        // filters in the order they were put, the oldest is dropped first
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+        private long invalidatedAt;
+
+        private Counts(long invalidatedAt) {
+            this.invalidatedAt = invalidatedAt;
+        }
+    }
+
+    private record Entry(long count, long expiresAt) {
+    }
+}
@@ -0,0 +1,173 @@
+package yukinari.software.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import yukinari.software.entity.User;
+
+import javax.sql.DataSource;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Objects;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes all contacts of a user with their addresses in one pass over a single query.
+ * <p>
+ * Rows are streamed from MySQL one at a time (a fetch size of <code>Integer.MIN_VALUE</code>
+ * makes Connector/J stream instead of buffering the whole result) and written out as they
+ * arrive, so memory stays the same whatever the size of the address book.
+ */
+@Service
+public class ContactExportService {
+
+    public static final String NDJSON = "ndjson";
+
+    public static final String CSV = "csv";
+
+    private static final String QUERY = "SELECT c.id, c.first_name, c.last_name, c.email, c.phone, " +
+            "a.id, a.street, a.city, a.province, a.country, a.postal_code " +
+            "FROM contacts c LEFT JOIN addresses a ON a.contact_id = c.id " +
+            "WHERE c.username = ? ORDER BY c.id";
+
+    private static final String CSV_HEADER = "contact_id,first_name,last_name,email,phone," +
+            "address_id,street,city,province,country,postal_code\n";
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private DataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+
+    @PostConstruct
+    void createJdbcTemplate() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.setFetchSize(Integer.MIN_VALUE);
+    }
+
+    public void validateFormat(String format) {
+        if (!NDJSON.equals(format) && !CSV.equals(format)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unsupported format " + format);
+        }
+    }
+
+    public void export(User user, String format, boolean gzip, OutputStream outputStream) throws IOException {
+        OutputStream output = gzip ? new GZIPOutputStream(outputStream, 8192) : outputStream;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 8192);
+
+        if (CSV.equals(format)) {
+            writer.write(CSV_HEADER);
+            jdbcTemplate.query(QUERY, resultSet -> {
+                writeCsvRow(writer, resultSet);
+            }, user.getUsername());
+        } else {
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(writer);
+            generator.setRootValueSeparator(null);
+            NdjsonWriter ndjson = new NdjsonWriter(generator);
+            jdbcTemplate.query(QUERY, ndjson::row, user.getUsername());
+            ndjson.finish();
+            generator.flush();
+        }
+
+        writer.flush();
+        if (gzip) {
+            ((GZIPOutputStream) output).finish();
+        }
+    }
+
+    private void writeCsvRow(Writer writer, ResultSet resultSet) throws SQLException {
+        try {
+            for (int column = 1; column <= 11; column++) {
+                if (column > 1) {
+                    writer.write(',');
+                }
+                writeCsvValue(writer, resultSet.getString(column));
+            }
+            writer.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeCsvValue(Writer writer, String value) throws IOException {
+        if (Objects.isNull(value)) {
+            return;
+        }
+
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    /**
+     * One JSON object per contact and line. Rows of the same contact are adjacent, their
+     * addresses are written as they come and the object is closed when the next contact starts.
+     */
+    private static class NdjsonWriter {
+
+        private final JsonGenerator generator;
+
+        private String contactId;
+
+        NdjsonWriter(JsonGenerator generator) {
+            this.generator = generator;
+        }
+
+        void row(ResultSet resultSet) throws SQLException {
+            try {
+                String id = resultSet.getString(1);
+                if (!id.equals(contactId)) {
+                    finish();
+                    contactId = id;
+
+                    generator.writeStartObject();
+                    generator.writeStringField("id", id);
+                    generator.writeStringField("firstName", resultSet.getString(2));
+                    generator.writeStringField("lastName", resultSet.getString(3));
+                    generator.writeStringField("email", resultSet.getString(4));
+                    generator.writeStringField("phone", resultSet.getString(5));
+                    generator.writeArrayFieldStart("addresses");
+                }
+
+                String addressId = resultSet.getString(6);
+                if (Objects.nonNull(addressId)) {
+                    generator.writeStartObject();
+                    generator.writeStringField("id", addressId);
+                    generator.writeStringField("street", resultSet.getString(7));
+                    generator.writeStringField("city", resultSet.getString(8));
+                    generator.writeStringField("province", resultSet.getString(9));
+                    generator.writeStringField("country", resultSet.getString(10));
+                    generator.writeStringField("postalCode", resultSet.getString(11));
+                    generator.writeEndObject();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void finish() throws IOException {
+            if (Objects.isNull(contactId)) {
+                return;
+            }
+
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+            contactId = null;
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package yukinari.software.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.ConstraintViolationException;
+import jakarta.validation.Validator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+import yukinari.software.entity.Contact;
+import yukinari.software.entity.User;
+import yukinari.software.model.BulkContactError;
+import yukinari.software.model.BulkContactResponse;
+import yukinari.software.model.CreateContactRequest;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates many contacts from one request body, a JSON array or a CSV file, without holding the
+ * whole body in memory.
+ * <p>
+ * Records are read one at a time and collected into chunks of
+ * <code>app.contact-import.chunk-size</code>. Each chunk is validated in slices on a pool of
+ * <code>app.contact-import.validation-threads</code> shared by all imports, and its valid records
+ * are written with one JDBC batch insert in their own transaction, so a chunk that has
+ * been written stays written even if a later one fails. Invalid records are skipped and reported
+ * by row number; the report keeps at most <code>app.contact-import.max-errors</code> of them.
+ */
+@Service
+public class ContactImportService {
+
+    private static final String INSERT = "INSERT INTO contacts (id, first_name, last_name, email, phone, created_at, username, version) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, 0)";
+
+    @Value("${app.contact-import.chunk-size:1000}")
+    private int chunkSize;
+
+    @Value("${app.contact-import.max-errors:1000}")
+    private int maxErrors;
+
+    @Value("${app.contact-import.validation-threads:0}")
+    private int validationThreads;
+
+    @Value("${app.contact-import.validation-queue-capacity:64}")
+    private int validationQueueCapacity;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private Validator validator;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ContactSearchIndex contactSearchIndex;
+
+    @Autowired
+    private ContactCountCache contactCountCache;
+
+    @Autowired
+    private IdGenerator idGenerator;
+
+    private ThreadPoolExecutor validationExecutor;
+
+    @PostConstruct
+    void start() {
+        int poolSize = validationThreads > 0 ? validationThreads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+
+        //a full queue makes the importing thread validate the slice itself
+        validationExecutor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(validationQueueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "contact-import-validation-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    void stop() {
+        validationExecutor.shutdownNow();
+    }
+
+    public BulkContactResponse importJson(User user, InputStream input) throws IOException {
+        Import result = new Import(user);
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(input)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Request body must be a JSON array");
+            }
+
+            int row = 0;
+            try {
+                JsonToken token;
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    row++;
+                    if (token != JsonToken.START_OBJECT) {
+                        parser.skipChildren();
+                        result.error(row, "Record must be a JSON object");
+                        continue;
+                    }
+
+                    //a record of the wrong shape only fails its own row, broken JSON ends the import
+                    JsonNode node = parser.readValueAsTree();
+                    try {
+                        result.add(row, objectMapper.treeToValue(node, CreateContactRequest.class));
+                    } catch (JsonProcessingException e) {
+                        result.error(row, "Invalid record: " + e.getOriginalMessage());
+                    }
+                }
+            } catch (JsonProcessingException e) {
+                result.error(row, "Malformed JSON: " + e.getOriginalMessage());
+            }
+        }
+
+        return result.finish();
+    }
+
+    public BulkContactResponse importCsv(User user, InputStream input) throws IOException {
+        Import result = new Import(user);
+        CsvReader reader = new CsvReader(new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)));
+
+        List<String> header = reader.next();
+        if (Objects.isNull(header)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "CSV header is missing");
+        }
+
+        int firstName = column(header, "firstname");
+        int lastName = column(header, "lastname");
+        int email = column(header, "email");
+        int phone = column(header, "phone");
+        if (firstName < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "CSV header must contain first_name");
+        }
+
+        int row = 0;
+        List<String> record;
+        while ((record = reader.next()) != null) {
+            row++;
+            result.add(row, CreateContactRequest.builder()
+                    .firstName(value(record, firstName))
+                    .lastName(value(record, lastName))
+                    .email(value(record, email))
+                    .phone(value(record, phone))
+                    .build());
+        }
+
+        return result.finish();
+    }
+
+    //first_name, firstName and First Name all name the same column
+    private int column(List<String> header, String name) {
+        for (int i = 0; i < header.size(); i++) {
+            String normalized = header.get(i).replaceAll("[\\s_]", "").toLowerCase(Locale.ROOT);
+            if (normalized.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String value(List<String> record, int column) {
+        if (column < 0 || column >= record.size() || record.get(column).isEmpty()) {
+            return null;
+        }
+        return record.get(column);
+    }
+
+    //one task per thread, the violations come back in the order of the requests
+    private List<Set<ConstraintViolation<CreateContactRequest>>> validate(List<CreateContactRequest> requests) {
+        int sliceSize = Math.max(1, (requests.size() + validationExecutor.getMaximumPoolSize() - 1) / validationExecutor.getMaximumPoolSize());
+
+        List<Future<List<Set<ConstraintViolation<CreateContactRequest>>>>> slices = new ArrayList<>();
+        for (int from = 0; from < requests.size(); from += sliceSize) {
+            List<CreateContactRequest> slice = requests.subList(from, Math.min(from + sliceSize, requests.size()));
+            slices.add(validationExecutor.submit(() -> slice.stream().map(request -> validator.validate(request)).toList()));
+        }
+
+        List<Set<ConstraintViolation<CreateContactRequest>>> violations = new ArrayList<>(requests.size());
+        try {
+            for (Future<List<Set<ConstraintViolation<CreateContactRequest>>>> slice : slices) {
+                violations.addAll(slice.get());
+            }
+        } catch (InterruptedException e) {
+            slices.forEach(slice -> slice.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while validating contacts", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return violations;
+    }
+
+    private void write(User user, List<CreateContactRequest> requests) {
+        long now = System.currentTimeMillis();
+        List<Contact> contacts = new ArrayList<>(requests.size());
+        for (CreateContactRequest request : requests) {
+            Contact contact = new Contact();
+            contact.setId(idGenerator.next());
+            contact.setFirstName(request.getFirstName());
+            contact.setLastName(request.getLastName());
+            contact.setEmail(request.getEmail());
+            contact.setPhone(request.getPhone());
+            contact.setCreatedAt(now);
+            contact.setUser(user);
+            contacts.add(contact);
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.batchUpdate(INSERT, contacts, contacts.size(), (statement, contact) -> {
+                statement.setString(1, contact.getId());
+                statement.setString(2, contact.getFirstName());
+                statement.setString(3, contact.getLastName());
+                statement.setString(4, contact.getEmail());
+                statement.setString(5, contact.getPhone());
+                statement.setLong(6, contact.getCreatedAt());
+                statement.setString(7, user.getUsername());
+            });
+            contactSearchIndex.indexNew(contacts);
+            contactCountCache.invalidate(user.getUsername());
+        });
+    }
+
+    /**
+     * Progress of one import: the pending chunk and the report so far.
+     */
+    private class Import {
+
+        private final User user;
+
+        private final List<Integer> rows = new ArrayList<>();
+
+        private final List<CreateContactRequest> requests = new ArrayList<>();
+
+        private final List<BulkContactError> errors = new ArrayList<>();
+
+        private int created;
+
+        private int failed;
+
+        Import(User user) {
+            this.user = user;
+        }
+
+        void add(int row, CreateContactRequest request) {
+            rows.add(row);
+            requests.add(request);
+            if (requests.size() >= chunkSize) {
+                flush();
+            }
+        }
+
+        void error(int row, String message) {
+            failed++;
+            if (errors.size() < maxErrors) {
+                errors.add(new BulkContactError(row, message));
+            }
+        }
+
+        void flush() {
+            if (requests.isEmpty()) {
+                return;
+            }
+
+            List<Set<ConstraintViolation<CreateContactRequest>>> violations = validate(requests);
+
+            List<CreateContactRequest> valid = new ArrayList<>(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                if (violations.get(i).isEmpty()) {
+                    valid.add(requests.get(i));
+                } else {
+                    error(rows.get(i), new ConstraintViolationException(violations.get(i)).getMessage());
+                }
+            }
+
+            if (!valid.isEmpty()) {
+                write(user, valid);
+                created += valid.size();
+            }
+
+            rows.clear();
+            requests.clear();
+        }
+
+        BulkContactResponse finish() {
+            flush();
+            errors.sort(Comparator.comparingInt(BulkContactError::getRow));
+            return BulkContactResponse.builder()
+                    .created(created)
+                    .failed(failed)
+                    .errors(errors)
+                    .build();
+        }
+    }
+
+    /**
+     * Reads RFC 4180 records: quoted fields may contain commas, doubled quotes and line breaks.
+     * Blank lines are skipped.
+     */
+    private static class CsvReader {
+
+        private final BufferedReader reader;
+
+        CsvReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        List<String> next() throws IOException {
+            List<String> record = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean empty = true;
+
+            int c;
+            while ((c = reader.read()) != -1) {
+                if (quoted) {
+                    if (c == '"') {
+                        reader.mark(1);
+                        if (reader.read() == '"') {
+                            field.append('"');
+                        } else {
+                            reader.reset();
+                            quoted = false;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                    empty = false;
+                } else if (c == ',') {
+                    record.add(field.toString());
+                    field.setLength(0);
+                    empty = false;
+                } else if (c == '\n' || c == '\r') {
+                    if (c == '\r') {
+                        reader.mark(1);
+                        if (reader.read() != '\n') {
+                            reader.reset();
+                        }
+                    }
+                    if (!empty || !field.isEmpty()) {
+                        record.add(field.toString());
+                        return record;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            }
+
+            if (empty && field.isEmpty()) {
+                return null;
+            }
+            record.add(field.toString());
+            return record;
+        }
+    }
+}
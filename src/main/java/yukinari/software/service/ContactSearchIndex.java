@@ -0,0 +1,299 @@
+package yukinari.software.service;
+
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import yukinari.software.entity.Contact;
+import yukinari.software.entity.User;
+import yukinari.software.model.SearchContactRequest;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Trigram index over the searchable contact fields, kept in contact_ngrams per user.
+ * <p>
+ * A search word of three or more characters only has to look at contacts that contain every
+ * trigram of the word. Those are looked up in the index first and the contact query is limited
+ * to their ids, instead of a <code>LIKE '%word%'</code> scan of all the user's contacts. The
+ * candidates are still checked with <code>LIKE</code>, so the index only narrows the rows and
+ * never adds a contact that does not match.
+ * <p>
+ * Text is folded to lower case without accents before it is split into trigrams, and a search
+ * with several words matches contacts that contain all of them.
+ * <p>
+ * Only used when <code>app.contact-search.index.enabled=true</code>. Contacts written while it
+ * was disabled are not indexed, so searches keep using <code>LIKE</code> alone until
+ * {@link ContactSearchIndexBackfill} has indexed all contacts once.
+ */
+@Service
+public class ContactSearchIndex {
+
+    private static final String NAME = "name";
+
+    private static final String EMAIL = "email";
+
+    private static final String PHONE = "phone";
+
+    private static final int GRAM_LENGTH = 3;
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    @Value("${app.contact-search.index.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.contact-search.index.max-candidates:5000}")
+    private int maxCandidates;
+
+    private volatile boolean ready;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether every contact has been indexed, before that searches do not use the index.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    void markReady() {
+        ready = true;
+    }
+
+    public void index(Contact contact) {
+        if (!enabled) {
+            return;
+        }
+
+        remove(contact.getId());
+        indexNew(List.of(contact));
+    }
+
+    /**
+     * Indexes contacts that were just inserted and have no grams yet, in one batch.
+     */
+    public void indexNew(List<Contact> contacts) {
+        if (!enabled || contacts.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> rows = new ArrayList<>();
+        for (Contact contact : contacts) {
+            String username = contact.getUser().getUsername();
+            addRows(rows, username, NAME, contact.getId(), contact.getFirstName(), contact.getLastName());
+            addRows(rows, username, EMAIL, contact.getId(), contact.getEmail());
+            addRows(rows, username, PHONE, contact.getId(), contact.getPhone());
+        }
+
+        jdbcTemplate.batchUpdate(
+                "INSERT IGNORE INTO contact_ngrams (username, field, gram, contact_id) VALUES (?, ?, ?, ?)",
+                rows);
+    }
+
+    public void remove(String contactId) {
+        if (!enabled) {
+            return;
+        }
+
+        jdbcTemplate.update("DELETE FROM contact_ngrams WHERE contact_id = ?", contactId);
+    }
+
+    public void removeAll(String username, List<String> contactIds) {
+        if (!enabled || contactIds.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.update("DELETE FROM contact_ngrams WHERE username = ? AND contact_id IN (" + placeholders(contactIds.size()) + ")",
+                args(username, contactIds));
+    }
+
+    /**
+     * Indexes the user's contacts again from their current values, after a set-based update.
+     */
+    public void reindex(User user, List<String> contactIds) {
+        if (!enabled || contactIds.isEmpty()) {
+            return;
+        }
+
+        removeAll(user.getUsername(), contactIds);
+        List<Contact> contacts = jdbcTemplate.query(
+                "SELECT id, first_name, last_name, email, phone FROM contacts WHERE username = ? AND id IN (" + placeholders(contactIds.size()) + ")",
+                (resultSet, row) -> {
+                    Contact contact = new Contact();
+                    contact.setId(resultSet.getString(1));
+                    contact.setFirstName(resultSet.getString(2));
+                    contact.setLastName(resultSet.getString(3));
+                    contact.setEmail(resultSet.getString(4));
+                    contact.setPhone(resultSet.getString(5));
+                    contact.setUser(user);
+                    return contact;
+                },
+                args(user.getUsername(), contactIds));
+        indexNew(contacts);
+    }
+
+    /**
+     * Indexes contacts again from the given values, whatever grams they had before.
+     */
+    public void replace(List<Contact> contacts) {
+        if (!enabled || contacts.isEmpty()) {
+            return;
+        }
+
+        List<String> ids = contacts.stream().map(Contact::getId).toList();
+        jdbcTemplate.update("DELETE FROM contact_ngrams WHERE contact_id IN (" + placeholders(ids.size()) + ")", ids.toArray());
+        indexNew(contacts);
+    }
+
+    /**
+     * Ids of the user's contacts that can match the request, or empty when the index cannot
+     * narrow it down: disabled, not backfilled yet, no search word of at least three characters, or more
+     * candidates than <code>app.contact-search.index.max-candidates</code>.
+     */
+    public Optional<Set<String>> candidates(User user, SearchContactRequest request) {
+        if (!enabled || !ready) {
+            return Optional.empty();
+        }
+
+        Set<String> candidates = null;
+        for (Map.Entry<String, String> filter : filters(request).entrySet()) {
+            for (String word : words(filter.getValue())) {
+                Set<String> grams = grams(word);
+                if (grams.isEmpty()) {
+                    continue;
+                }
+
+                Set<String> ids = lookup(user.getUsername(), filter.getKey(), grams);
+                if (ids == null) {
+                    continue;
+                }
+
+                if (candidates == null) {
+                    candidates = ids;
+                } else {
+                    candidates.retainAll(ids);
+                }
+
+                if (candidates.isEmpty()) {
+                    return Optional.of(candidates);
+                }
+            }
+        }
+
+        return Optional.ofNullable(candidates);
+    }
+
+    /**
+     * Predicate for contacts whose attributes contain the term, every word of it when the index
+     * is enabled.
+     */
+    public Predicate matches(Root<Contact> root, CriteriaBuilder builder, String term, String... attributes) {
+        if (!enabled) {
+            return like(root, builder, term, attributes);
+        }
+
+        List<String> words = words(term);
+        if (words.isEmpty()) {
+            return like(root, builder, term, attributes);
+        }
+
+        return builder.and(words.stream()
+                .map(word -> like(root, builder, word, attributes))
+                .toArray(Predicate[]::new));
+    }
+
+    //contacts having every gram in the field, null when there are too many to be useful
+    private Set<String> lookup(String username, String field, Set<String> grams) {
+        String placeholders = placeholders(grams.size());
+        List<Object> args = new ArrayList<>();
+        args.add(username);
+        args.add(field);
+        args.addAll(grams);
+        args.add(grams.size());
+        args.add(maxCandidates + 1);
+
+        List<String> ids = jdbcTemplate.queryForList(
+                "SELECT contact_id FROM contact_ngrams WHERE username = ? AND field = ? AND gram IN (" + placeholders + ") " +
+                        "GROUP BY contact_id HAVING COUNT(*) = ? LIMIT ?",
+                String.class, args.toArray());
+
+        return ids.size() > maxCandidates ? null : new HashSet<>(ids);
+    }
+
+    private String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private Object[] args(String username, List<String> contactIds) {
+        List<Object> args = new ArrayList<>(contactIds.size() + 1);
+        args.add(username);
+        args.addAll(contactIds);
+        return args.toArray();
+    }
+
+    private Map<String, String> filters(SearchContactRequest request) {
+        Map<String, String> filters = new LinkedHashMap<>();
+        if (Objects.nonNull(request.getName())) {
+            filters.put(NAME, request.getName());
+        }
+        if (Objects.nonNull(request.getEmail())) {
+            filters.put(EMAIL, request.getEmail());
+        }
+        if (Objects.nonNull(request.getPhone())) {
+            filters.put(PHONE, request.getPhone());
+        }
+        return filters;
+    }
+
+    private List<String> words(String term) {
+        return Arrays.stream(WHITESPACE.split(term.trim()))
+                .filter(word -> !word.isEmpty())
+                .toList();
+    }
+
+    private Predicate like(Root<Contact> root, CriteriaBuilder builder, String term, String... attributes) {
+        Predicate[] predicates = Arrays.stream(attributes)
+                .map(attribute -> builder.like(root.get(attribute), "%" + term + "%"))
+                .toArray(Predicate[]::new);
+        return builder.or(predicates);
+    }
+
+    private void addRows(List<Object[]> rows, String username, String field, String contactId, String... values) {
+        Set<String> grams = new HashSet<>();
+        for (String value : values) {
+            if (value != null) {
+                grams.addAll(grams(value));
+            }
+        }
+
+        for (String gram : grams) {
+            rows.add(new Object[]{username, field, gram, contactId});
+        }
+    }
+
+    static Set<String> grams(String value) {
+        String folded = fold(value);
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= folded.length(); i++) {
+            grams.add(folded.substring(i, i + GRAM_LENGTH));
+        }
+        return grams;
+    }
+
+    static String fold(String value) {
+        String decomposed = Normalizer.normalize(value, Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+}
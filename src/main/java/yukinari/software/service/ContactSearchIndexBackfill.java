@@ -0,0 +1,128 @@
+package yukinari.software.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import yukinari.software.entity.Contact;
+import yukinari.software.entity.User;
+import yukinari.software.repository.MaintenanceLeaseRepository;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Indexes all existing contacts for search once, after the index has been enabled.
+ * <p>
+ * Only the node holding the "contact-search-backfill" row in maintenance_leases does the work. It
+ * walks the contacts in id order and indexes every chunk in a transaction that locks its
+ * contacts, so a concurrent update either waits for the chunk or is read by it. When all
+ * contacts are done a "contact-search-backfilled" row that never expires is added, and every
+ * node starts using the index. Delete that row to run the backfill again, for example after the
+ * index has been disabled for a while.
+ */
+@Slf4j
+@Service
+public class ContactSearchIndexBackfill {
+
+    private static final String LEASE = "contact-search-backfill";
+
+    private static final String DONE = "contact-search-backfilled";
+
+    @Autowired
+    private ContactSearchIndex contactSearchIndex;
+
+    @Autowired
+    private MaintenanceLeaseRepository maintenanceLeaseRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${app.contact-search.index.backfill.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${app.contact-search.index.backfill.lease:PT5M}")
+    private Duration lease;
+
+    private final String owner = UUID.randomUUID().toString();
+
+    @Scheduled(initialDelayString = "${app.contact-search.index.backfill.interval:PT1M}",
+            fixedDelayString = "${app.contact-search.index.backfill.interval:PT1M}")
+    public void run() {
+        if (!contactSearchIndex.isEnabled() || contactSearchIndex.isReady()) {
+            return;
+        }
+
+        if (maintenanceLeaseRepository.existsById(DONE)) {
+            contactSearchIndex.markReady();
+            return;
+        }
+
+        if (!acquireLease()) {
+            return;
+        }
+
+        String lastId = "";
+        int total = 0;
+        while (true) {
+            String after = lastId;
+            List<Contact> contacts = transactionTemplate.execute(status -> indexChunk(after));
+            if (contacts.isEmpty()) {
+                break;
+            }
+
+            total += contacts.size();
+            lastId = contacts.get(contacts.size() - 1).getId();
+
+            if (contacts.size() < chunkSize) {
+                break;
+            }
+            if (!acquireLease()) {
+                log.warn("Lost the contact search backfill lease after {} contacts", total);
+                return;
+            }
+        }
+
+        maintenanceLeaseRepository.create(DONE, owner, Long.MAX_VALUE);
+        contactSearchIndex.markReady();
+        log.info("Indexed {} contacts for search", total);
+    }
+
+    private List<Contact> indexChunk(String afterId) {
+        List<Contact> contacts = jdbcTemplate.query(
+                "SELECT id, first_name, last_name, email, phone, username FROM contacts " +
+                        "WHERE id > ? ORDER BY id LIMIT ? FOR UPDATE",
+                (resultSet, row) -> {
+                    Contact contact = new Contact();
+                    contact.setId(resultSet.getString(1));
+                    contact.setFirstName(resultSet.getString(2));
+                    contact.setLastName(resultSet.getString(3));
+                    contact.setEmail(resultSet.getString(4));
+                    contact.setPhone(resultSet.getString(5));
+
+                    User user = new User();
+                    user.setUsername(resultSet.getString(6));
+                    contact.setUser(user);
+                    return contact;
+                },
+                afterId, chunkSize);
+
+        contactSearchIndex.replace(contacts);
+        return contacts;
+    }
+
+    private boolean acquireLease() {
+        long now = System.currentTimeMillis();
+        long expiresAt = now + lease.toMillis();
+
+        return maintenanceLeaseRepository.renew(LEASE, owner, expiresAt, now) > 0
+                || maintenanceLeaseRepository.create(LEASE, owner, expiresAt) > 0;
+    }
+}
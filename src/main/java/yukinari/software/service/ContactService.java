@@ -1,28 +1,43 @@
 package yukinari.software.service;
 
 import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Subquery;
 import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Window;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
+import yukinari.software.entity.Address;
 import yukinari.software.entity.Contact;
 import yukinari.software.entity.User;
+import yukinari.software.model.AddressResponse;
 import yukinari.software.model.ContactResponse;
 import yukinari.software.model.CreateContactRequest;
+import yukinari.software.model.CursorPage;
+import yukinari.software.model.SearchAddressRequest;
 import yukinari.software.model.SearchContactRequest;
 import yukinari.software.model.UpdateContactRequest;
+import yukinari.software.repository.AddressRepository;
 import yukinari.software.repository.ContactRepository;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
-import java.util.UUID;
+import java.util.Optional;
+import java.util.Set;
 
 @Service
 public class ContactService {
@@ -30,58 +45,125 @@ public class ContactService {
     @Autowired
     private ContactRepository contactRepository;
 
+    @Autowired
+    private AddressRepository addressRepository;
+
     @Autowired
     private ValidationService validationService;
 
+    @Autowired
+    private ContactSearchIndex contactSearchIndex;
+
+    @Autowired
+    private ContactCountCache contactCountCache;
+
+    @Autowired
+    private IdGenerator idGenerator;
+
     @Transactional
     public ContactResponse create(User user, CreateContactRequest request) {
         validationService.validate(request);
 
         Contact contact = new Contact();
-        contact.setId(UUID.randomUUID().toString());
+        contact.setId(idGenerator.next());
         contact.setFirstName(request.getFirstName());
         contact.setLastName(request.getLastName());
         contact.setPhone(request.getPhone());
         contact.setEmail(request.getEmail());
+        contact.setCreatedAt(System.currentTimeMillis());
         contact.setUser(user);
         contactRepository.save(contact);
+        contactSearchIndex.index(contact);
+        contactCountCache.invalidate(user.getUsername());
 
         return toContactResponse(contact);
     }
 
-    private ContactResponse toContactResponse(Contact contact) {
+    static ContactResponse toContactResponse(Contact contact) {
         return ContactResponse.builder()
                 .id(contact.getId())
                 .firstName(contact.getFirstName())
                 .lastName(contact.getLastName())
                 .email(contact.getEmail())
                 .phone(contact.getPhone())
+                .version(contact.getVersion())
                 .build();
     }
 
 
+    /**
+     * Contact responses of a page, with the addresses of all of them loaded in one query when
+     * expand is "addresses".
+     */
+    private List<ContactResponse> toContactResponses(List<Contact> contacts, String expand) {
+        List<ContactResponse> contactResponses = contacts.stream()
+                .map(ContactService::toContactResponse)
+                .toList();
+
+        if (isAddressesExpanded(expand) && !contactResponses.isEmpty()) {
+            Map<String, List<AddressResponse>> addresses = new HashMap<>();
+            for (ContactResponse contactResponse : contactResponses) {
+                contactResponse.setAddresses(new ArrayList<>());
+                addresses.put(contactResponse.getId(), contactResponse.getAddresses());
+            }
+
+            for (Address address : addressRepository.findAllByContactIdIn(addresses.keySet())) {
+                addresses.get(address.getContact().getId()).add(AddressService.toAddressResponse(address));
+            }
+        }
+
+        return contactResponses;
+    }
+
+    private boolean isAddressesExpanded(String expand) {
+        if (Objects.isNull(expand)) {
+            return false;
+        }
+        if (!"addresses".equals(expand)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unsupported expand " + expand);
+        }
+        return true;
+    }
+
     @Transactional
-    public ContactResponse get(User user, String id) {
+    public ContactResponse get(User user, String id, String expand) {
         Contact contact = contactRepository.findFirstByUserAndId(user, id).orElseThrow(
                 () -> new ResponseStatusException(HttpStatus.NOT_FOUND, "contact not found")
         );
 
-        return toContactResponse(contact);
+        return toContactResponses(List.of(contact), expand).get(0);
     }
 
+    /**
+     * Writes the contact with one conditional UPDATE instead of a load and a save. With the
+     * version the client read, the update fails with 409 when the contact has changed since;
+     * without it the last write wins and the new version is read back.
+     */
     @Transactional
     public ContactResponse update(User user, UpdateContactRequest request) {
         validationService.validate(request);
 
-        Contact contact = contactRepository.findFirstByUserAndId(user, request.getId()).orElseThrow(
-                () -> new ResponseStatusException(HttpStatus.NOT_FOUND, "contact not found")
-        );
+        int updated = contactRepository.update(user, request.getId(), request.getVersion(),
+                request.getFirstName(), request.getLastName(), request.getEmail(), request.getPhone());
+        if (updated == 0) {
+            if (contactRepository.existsByUserAndId(user, request.getId())) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "contact has been modified");
+            }
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "contact not found");
+        }
 
+        Contact contact = new Contact();
+        contact.setId(request.getId());
         contact.setFirstName(request.getFirstName());
         contact.setLastName(request.getLastName());
         contact.setEmail(request.getEmail());
         contact.setPhone(request.getPhone());
-        contactRepository.save(contact);
+        contact.setUser(user);
+        contact.setVersion(Objects.nonNull(request.getVersion())
+                ? request.getVersion() + 1
+                : contactRepository.findFirstByUserAndId(user, request.getId()).orElseThrow().getVersion());
+        contactSearchIndex.index(contact);
+        contactCountCache.invalidate(user.getUsername());
 
         return toContactResponse(contact);
     }
@@ -93,45 +175,207 @@ public class ContactService {
         );
 
         contactRepository.delete(contact);
+        contactSearchIndex.remove(contact.getId());
+        contactCountCache.invalidate(user.getUsername());
     }
 
 
     @Transactional
     public Page<ContactResponse> search(User user, SearchContactRequest request) {
-        Specification<Contact> specification = ((root, query, builder) -> {
+        validationService.validate(request);
+
+        ContactSort sort = ContactSort.of(request.getSort(), request.getDirection());
+        Specification<Contact> specification = specification(user, request);
+        Pageable pageable = PageRequest.of(request.getPage(), request.getSize(), sort.toSort());
+
+        //a known total only needs the page itself
+        String filter = countFilter(request);
+        long generation = contactCountCache.generation(user.getUsername());
+        Long total = contactCountCache.get(user.getUsername(), filter);
+        if (Objects.nonNull(total)) {
+            List<ContactResponse> contactResponses = toContactResponses(
+                    window(specification, pageable).getContent(), request.getExpand());
+
+            return new PageImpl<>(contactResponses, pageable, total);
+        }
+
+        Page<Contact> contacts = contactRepository.findAll(specification, pageable);
+        contactCountCache.put(user.getUsername(), filter, contacts.getTotalElements(), generation);
+        List<ContactResponse> contactResponses = toContactResponses(contacts.getContent(), request.getExpand());
+
+        return new PageImpl<>(contactResponses, pageable, contacts.getTotalElements());
+
+    }
+
+    //filters that give the same count share a key, like compares case insensitively. An empty
+    //filter still excludes nulls and spaces are matched, so only the case is ignored
+    private String countFilter(SearchContactRequest request) {
+        return String.join("\u0000",
+                normalize(request.getName()), normalize(request.getEmail()), normalize(request.getPhone()));
+    }
+
+    private String normalize(String value) {
+        return Objects.isNull(value) ? "" : "=" + value.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Same page as {@link #search} without the count query, whether there is a next page comes
+     * from fetching one row more than the page size.
+     */
+    @Transactional
+    public Slice<ContactResponse> searchSlice(User user, SearchContactRequest request) {
+        validationService.validate(request);
+
+        ContactSort sort = ContactSort.of(request.getSort(), request.getDirection());
+        Specification<Contact> specification = specification(user, request);
+
+        Pageable pageable = PageRequest.of(request.getPage(), request.getSize(), sort.toSort());
+        Window<Contact> contacts = window(specification, pageable);
+        List<ContactResponse> contactResponses = toContactResponses(contacts.getContent(), request.getExpand());
+
+        return new SliceImpl<>(contactResponses, pageable, contacts.hasNext());
+    }
+
+    //the page plus whether a next one exists, without a count query
+    private Window<Contact> window(Specification<Contact> specification, Pageable pageable) {
+        //an offset position points at the last row already returned
+        ScrollPosition position = pageable.getOffset() == 0
+                ? ScrollPosition.offset()
+                : ScrollPosition.offset(pageable.getOffset() - 1);
+
+        return contactRepository.findBy(specification, query -> query
+                .sortBy(pageable.getSort())
+                .limit(pageable.getPageSize())
+                .scroll(position));
+    }
+
+    /**
+     * Keyset pagination: seeks past the sort value and id in the cursor instead of skipping rows,
+     * so every page costs the same and rows inserted meanwhile do not shift later pages.
+     */
+    @Transactional
+    public CursorPage<ContactResponse> searchByCursor(User user, SearchContactRequest request) {
+        validationService.validate(request);
+
+        ContactSort sort = ContactSort.of(request.getSort(), request.getDirection());
+        String cursor = request.getCursor();
+
+        Specification<Contact> specification = specification(user, request);
+        if (!cursor.isEmpty()) {
+            specification = specification.and((root, query, builder) -> sort.after(root, builder, cursor));
+        }
+
+        //one extra row tells whether there is a next page
+        List<Contact> contacts = contactRepository.findBy(specification, query -> query
+                .sortBy(sort.toSort())
+                .limit(request.getSize() + 1)
+                .all());
+
+        boolean hasNext = contacts.size() > request.getSize();
+        if (hasNext) {
+            contacts = contacts.subList(0, request.getSize());
+        }
+
+        return CursorPage.<ContactResponse>builder()
+                .content(toContactResponses(contacts, request.getExpand()))
+                .size(request.getSize())
+                .nextCursor(hasNext ? sort.cursorAfter(contacts.get(contacts.size() - 1)) : null)
+                .build();
+    }
+
+    /**
+     * The user's contacts having at least one address that matches every given filter, each
+     * contact once, in id order with keyset pagination. City, province and country compare
+     * equal ignoring case like the column collation does, and the postal code is a prefix.
+     * <p>
+     * The addresses are checked with an EXISTS subquery on <code>(column, contact_id)</code>
+     * indexes, so a contact with several matching addresses is not repeated.
+     */
+    @Transactional
+    public CursorPage<ContactResponse> searchByAddress(User user, SearchAddressRequest request) {
+        validationService.validate(request);
+
+        if (Objects.isNull(request.getCity()) && Objects.isNull(request.getProvince())
+                && Objects.isNull(request.getCountry()) && Objects.isNull(request.getPostalCode())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "At least one of city, province, country or postalCode is required");
+        }
+
+        ContactSort sort = ContactSort.of(null, null);
+        String cursor = Objects.isNull(request.getCursor()) ? "" : request.getCursor();
+
+        Specification<Contact> specification = (root, query, builder) -> {
+            Subquery<String> addresses = query.subquery(String.class);
+            Root<Address> address = addresses.from(Address.class);
+
             List<Predicate> predicates = new ArrayList<>();
-            predicates.add(builder.equal(root.get("user"), user));
+            predicates.add(builder.equal(address.get("contact"), root));
+            if (Objects.nonNull(request.getCity())) {
+                predicates.add(builder.equal(address.get("city"), request.getCity().trim()));
+            }
+            if (Objects.nonNull(request.getProvince())) {
+                predicates.add(builder.equal(address.get("province"), request.getProvince().trim()));
+            }
+            if (Objects.nonNull(request.getCountry())) {
+                predicates.add(builder.equal(address.get("country"), request.getCountry().trim()));
+            }
+            if (Objects.nonNull(request.getPostalCode())) {
+                String prefix = request.getPostalCode().trim().replaceAll("([\\\\%_])", "\\\\$1");
+                predicates.add(builder.like(address.get("postalCode"), prefix + "%", '\\'));
+            }
+            addresses.select(address.get("id")).where(predicates.toArray(new Predicate[]{}));
+
+            Predicate matches = builder.and(builder.equal(root.get("user"), user), builder.exists(addresses));
+            return cursor.isEmpty() ? matches : builder.and(matches, sort.after(root, builder, cursor));
+        };
+
+        //one extra row tells whether there is a next page
+        List<Contact> contacts = contactRepository.findBy(specification, query -> query
+                .sortBy(sort.toSort())
+                .limit(request.getSize() + 1)
+                .all());
+
+        boolean hasNext = contacts.size() > request.getSize();
+        if (hasNext) {
+            contacts = contacts.subList(0, request.getSize());
+        }
+
+        return CursorPage.<ContactResponse>builder()
+                .content(toContactResponses(contacts, request.getExpand()))
+                .size(request.getSize())
+                .nextCursor(hasNext ? sort.cursorAfter(contacts.get(contacts.size() - 1)) : null)
+                .build();
+    }
+
+    Specification<Contact> specification(User user, SearchContactRequest request) {
+        Optional<Set<String>> candidates = contactSearchIndex.candidates(user, request);
+
+        return (root, query, builder) -> {
+            List<Predicate> predicates = new ArrayList<>();
+
+            //candidates only hold the user's contacts, and filtering on username as well makes
+            //MySQL walk every contact of the user instead of looking up the ids
+            if (candidates.isPresent()) {
+                predicates.add(candidates.get().isEmpty()
+                        ? builder.disjunction()
+                        : root.get("id").in(candidates.get()));
+            } else {
+                predicates.add(builder.equal(root.get("user"), user));
+            }
 
             if (Objects.nonNull(request.getName())) {
-                predicates.add(builder.or(
-                        builder.like(root.get("firstName"), "%" + request.getName() + "%"),
-                        builder.like(root.get("lastName"), "%" + request.getName() + "%")
-                ));
+                predicates.add(contactSearchIndex.matches(root, builder, request.getName(), "firstName", "lastName"));
             }
 
             if (Objects.nonNull(request.getEmail())) {
-                predicates.add(builder.or(
-                        builder.like(root.get("email"), "%" + request.getEmail() + "%")
-                ));
+                predicates.add(contactSearchIndex.matches(root, builder, request.getEmail(), "email"));
             }
 
             if (Objects.nonNull(request.getPhone())) {
-                predicates.add(builder.or(
-                        builder.like(root.get("phone"), "%" + request.getPhone() + "%")
-                ));
+                predicates.add(contactSearchIndex.matches(root, builder, request.getPhone(), "phone"));
             }
 
             return query.where(predicates.toArray(new Predicate[]{})).getRestriction();
-
-        });
-
-        Pageable pageable = PageRequest.of(request.getPage(), request.getSize());
-        Page<Contact> contacts = contactRepository.findAll(specification, pageable);
-        List<ContactResponse> contactResponses = contacts.getContent().stream()
-                .map(this::toContactResponse)
-                .toList();
-
-        return new PageImpl<>(contactResponses, pageable, contacts.getTotalElements());
-
+        };
     }
 }
@@ -0,0 +1,126 @@
+package yukinari.software.service;
+
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import yukinari.software.entity.Contact;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * Order of a contact search, always ending with id so that equal sort values still have a
+ * stable order. Every sortable property has a <code>(username, column, id)</code> index on
+ * contacts, so sorted pages are read in index order without a filesort.
+ * <p>
+ * Cursors hold the property, direction, id and sort value of the last contact of a page, so
+ * the next page can seek past it. MySQL sorts nulls first ascending and last descending, and
+ * the seek follows the same order.
+ */
+record ContactSort(String property, Sort.Direction direction) {
+
+    private static final String SEPARATOR = "\n";
+
+    static ContactSort of(String sort, String direction) {
+        String property = Objects.isNull(sort) ? "id" : sort;
+        if (!property.equals("id") && !property.equals("firstName") && !property.equals("lastName")
+                && !property.equals("email") && !property.equals("createdAt")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unsupported sort " + sort);
+        }
+
+        Sort.Direction sortDirection = Objects.isNull(direction)
+                ? Sort.Direction.ASC
+                : Sort.Direction.fromOptionalString(direction).orElseThrow(
+                        () -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unsupported direction " + direction));
+
+        return new ContactSort(property, sortDirection);
+    }
+
+    Sort toSort() {
+        Sort sort = Sort.by(direction, "id");
+        return property.equals("id") ? sort : Sort.by(direction, property).and(sort);
+    }
+
+    String cursorAfter(Contact contact) {
+        String cursor = String.join(SEPARATOR, property, direction.name(), contact.getId());
+        Object value = value(contact);
+        if (Objects.nonNull(value)) {
+            cursor = cursor + SEPARATOR + value;
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Predicate for the contacts after the cursor in this order.
+     */
+    Predicate after(Root<Contact> root, CriteriaBuilder builder, String cursor) {
+        String[] parts = decode(cursor);
+        String id = parts[2];
+        boolean ascending = direction.isAscending();
+
+        Path<String> idPath = root.get("id");
+        Predicate idAfter = ascending ? builder.greaterThan(idPath, id) : builder.lessThan(idPath, id);
+        if (property.equals("id")) {
+            return idAfter;
+        }
+
+        Path<Comparable<Object>> column = root.get(property);
+        if (parts.length < 4) {
+            //the last contact had no value, which sorts before all values ascending
+            return ascending
+                    ? builder.or(builder.isNotNull(column), builder.and(builder.isNull(column), idAfter))
+                    : builder.and(builder.isNull(column), idAfter);
+        }
+
+        Comparable<Object> value = parse(parts[3]);
+        Predicate valueAfter = ascending ? builder.greaterThan(column, value) : builder.lessThan(column, value);
+        Predicate sameValue = builder.and(builder.equal(column, value), idAfter);
+
+        return ascending
+                ? builder.or(valueAfter, sameValue)
+                : builder.or(valueAfter, sameValue, builder.isNull(column));
+    }
+
+    private String[] decode(String cursor) {
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(SEPARATOR, 4);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
+
+        //a cursor only continues the order it was made for
+        if (parts.length < 3 || !parts[0].equals(property) || !parts[1].equals(direction.name())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
+        return parts;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Comparable<Object> parse(String value) {
+        if (!property.equals("createdAt")) {
+            return (Comparable<Object>) (Comparable<?>) value;
+        }
+
+        try {
+            return (Comparable<Object>) (Comparable<?>) Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
+    }
+
+    private Object value(Contact contact) {
+        return switch (property) {
+            case "firstName" -> contact.getFirstName();
+            case "lastName" -> contact.getLastName();
+            case "email" -> contact.getEmail();
+            case "createdAt" -> contact.getCreatedAt();
+            default -> contact.getId();
+        };
+    }
+}
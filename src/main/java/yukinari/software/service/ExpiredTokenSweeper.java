@@ -0,0 +1,73 @@
+package yukinari.software.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import yukinari.software.repository.MaintenanceLeaseRepository;
+import yukinari.software.repository.UserSessionRepository;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Deletes expired sessions in small batches. When several nodes share the database
+ * only the one holding the "expired-token-sweeper" row in maintenance_leases does the work.
+ */
+@Slf4j
+@Service
+public class ExpiredTokenSweeper {
+
+    private static final String LEASE = "expired-token-sweeper";
+
+    @Autowired
+    private UserSessionRepository userSessionRepository;
+
+    @Autowired
+    private MaintenanceLeaseRepository maintenanceLeaseRepository;
+
+    @Value("${app.token-sweeper.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.token-sweeper.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${app.token-sweeper.max-batches:100}")
+    private int maxBatches;
+
+    @Value("${app.token-sweeper.lease:PT5M}")
+    private Duration lease;
+
+    private final String owner = UUID.randomUUID().toString();
+
+    @Scheduled(initialDelayString = "${app.token-sweeper.interval:PT10M}",
+            fixedDelayString = "${app.token-sweeper.interval:PT10M}")
+    public void sweep() {
+        if (!enabled || !acquireLease()) {
+            return;
+        }
+
+        int total = 0;
+        for (int batch = 0; batch < maxBatches; batch++) {
+            //every batch is its own short transaction
+            int deleted = userSessionRepository.deleteExpired(System.currentTimeMillis(), batchSize);
+            total += deleted;
+            if (deleted < batchSize) {
+                break;
+            }
+        }
+
+        if (total > 0) {
+            log.info("Deleted {} expired sessions", total);
+        }
+    }
+
+    private boolean acquireLease() {
+        long now = System.currentTimeMillis();
+        long expiresAt = now + lease.toMillis();
+
+        return maintenanceLeaseRepository.renew(LEASE, owner, expiresAt, now) > 0
+                || maintenanceLeaseRepository.create(LEASE, owner, expiresAt) > 0;
+    }
+}
@@ -0,0 +1,122 @@
+package yukinari.software.service;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Geohash cells for the nearby search. A geohash interleaves longitude and latitude bits, so
+ * every prefix names a rectangular cell and the addresses in a cell are one range of the
+ * <code>addresses.geohash</code> index.
+ */
+final class GeoHash {
+
+    static final int PRECISION = 12;
+
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+    private static final double EARTH_RADIUS = 6_371_008.8;
+
+    private GeoHash() {
+    }
+
+    static String encode(double latitude, double longitude, int precision) {
+        double minLatitude = -90, maxLatitude = 90;
+        double minLongitude = -180, maxLongitude = 180;
+
+        StringBuilder hash = new StringBuilder(precision);
+        boolean longitudeBit = true;
+        int bits = 0;
+        int value = 0;
+
+        while (hash.length() < precision) {
+            if (longitudeBit) {
+                double middle = (minLongitude + maxLongitude) / 2;
+                if (longitude >= middle) {
+                    value = value << 1 | 1;
+                    minLongitude = middle;
+                } else {
+                    value = value << 1;
+                    maxLongitude = middle;
+                }
+            } else {
+                double middle = (minLatitude + maxLatitude) / 2;
+                if (latitude >= middle) {
+                    value = value << 1 | 1;
+                    minLatitude = middle;
+                } else {
+                    value = value << 1;
+                    maxLatitude = middle;
+                }
+            }
+            longitudeBit = !longitudeBit;
+
+            if (++bits == 5) {
+                hash.append(BASE32.charAt(value));
+                bits = 0;
+                value = 0;
+            }
+        }
+
+        return hash.toString();
+    }
+
+    /**
+     * Cells covering the box, at the finest precision that needs no more than maxCells of them.
+     * An empty prefix, the whole world, when even one character is too fine.
+     */
+    static Set<String> cover(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, int maxCells) {
+        for (int precision = PRECISION; precision >= 1; precision--) {
+            double height = 180 / Math.pow(2, 5 * precision / 2);
+            double width = 360 / Math.pow(2, (5 * precision + 1) / 2);
+
+            long firstRow = (long) Math.floor((minLatitude + 90) / height);
+            long lastRow = (long) Math.floor((maxLatitude + 90) / height);
+            long firstColumn = (long) Math.floor((minLongitude + 180) / width);
+            long lastColumn = (long) Math.floor((maxLongitude + 180) / width);
+
+            if ((double) (lastRow - firstRow + 1) * (lastColumn - firstColumn + 1) > maxCells) {
+                continue;
+            }
+
+            //encoding the center of every cell in the box gives its hash
+            Set<String> cells = new TreeSet<>();
+            for (long row = firstRow; row <= lastRow; row++) {
+                double latitude = Math.min(-90 + (row + 0.5) * height, 90);
+                for (long column = firstColumn; column <= lastColumn; column++) {
+                    double longitude = Math.min(-180 + (column + 0.5) * width, 180);
+                    cells.add(encode(latitude, longitude, precision));
+                }
+            }
+            return cells;
+        }
+
+        return Set.of("");
+    }
+
+    /**
+     * Great-circle distance in meters.
+     */
+    static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double deltaLatitude = Math.toRadians(latitude2 - latitude1);
+        double deltaLongitude = Math.toRadians(longitude2 - longitude1);
+        double a = Math.pow(Math.sin(deltaLatitude / 2), 2)
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                * Math.pow(Math.sin(deltaLongitude / 2), 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Degrees of latitude spanned by the distance.
+     */
+    static double latitudeDegrees(double meters) {
+        return Math.toDegrees(meters / EARTH_RADIUS);
+    }
+
+    /**
+     * Degrees of longitude spanned by the distance at the latitude, more than 360 near the poles.
+     */
+    static double longitudeDegrees(double meters, double latitude) {
+        double cos = Math.cos(Math.toRadians(latitude));
+        return cos <= 0 ? Double.MAX_VALUE : Math.toDegrees(meters / (EARTH_RADIUS * cos));
+    }
+}
@@ -0,0 +1,58 @@
+package yukinari.software.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Ids for new contacts and addresses.
+ * <p>
+ * By default these are time-ordered UUIDs (version 7): the first 48 bits are the creation time in
+ * milliseconds, so new rows are appended to the end of the primary key index instead of being
+ * scattered over all of its pages. Ids created in the same millisecond count up in the next 12
+ * bits, which keeps them increasing within one node. The text form is the usual 36 character
+ * UUID, so ids created before, random version 4 UUIDs, are still valid ids.
+ * <p>
+ * With <code>app.id.time-ordered=false</code> ids are random UUIDs again.
+ */
+@Component
+public class IdGenerator {
+
+    private static final int MAX_SEQUENCE = 0xFFF;
+
+    @Value("${app.id.time-ordered:true}")
+    private boolean timeOrdered;
+
+    private long lastMillis;
+
+    private int sequence;
+
+    public String next() {
+        if (!timeOrdered) {
+            return UUID.randomUUID().toString();
+        }
+
+        long millis;
+        int counter;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now > lastMillis) {
+                lastMillis = now;
+                //a random start in the lower half leaves room to count up within the millisecond
+                sequence = ThreadLocalRandom.current().nextInt(MAX_SEQUENCE / 2);
+            } else if (++sequence > MAX_SEQUENCE) {
+                //out of sequence, or the clock went back: borrow the next millisecond
+                lastMillis++;
+                sequence = 0;
+            }
+            millis = lastMillis;
+            counter = sequence;
+        }
+
+        long mostSignificantBits = millis << 16 | 0x7000 | counter;
+        long leastSignificantBits = ThreadLocalRandom.current().nextLong() & 0x3FFFFFFFFFFFFFFFL | 0x8000000000000000L;
+        return new UUID(mostSignificantBits, leastSignificantBits).toString();
+    }
+}
@@ -2,6 +2,7 @@ package yukinari.software.service;
 
 import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
@@ -10,8 +11,9 @@ import yukinari.software.model.UpdateUserRequest;
 import yukinari.software.model.UserResponse;
 import yukinari.software.model.RegisterUserRequest;
 import yukinari.software.repository.UserRepository;
-import yukinari.software.security.BCrypt;
+import yukinari.software.security.PasswordHasher;
 
+import java.sql.SQLException;
 import java.util.Objects;
 
 @Service
@@ -23,26 +25,48 @@ public class UserService {
     @Autowired
     private ValidationService validationService;
 
-    @Transactional
+    @Autowired
+    private PasswordHasher passwordHasher;
+
+    @Autowired
+    private UsernameFilter usernameFilter;
+
     public void register(RegisterUserRequest request) {
         //validate request
         validationService.validate(request);
 
-        //validate if username already registered
-        if (userRepository.existsById(request.getUsername())) {
+        //only a username the filter may have seen is looked up, to spare the shared hasher pool a hash
+        if (usernameFilter.mightBeTaken(request.getUsername()) && userRepository.existsById(request.getUsername())) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Username already registered");
         }
 
-        //if not registered, create user
-        User user = new User();
-        user.setUsername(request.getUsername());
-        user.setPassword(BCrypt.hashpw(request.getPassword(), BCrypt.gensalt()));
-        user.setName(request.getName());
+        //a single insert, the primary key decides
+        try {
+            userRepository.insert(request.getUsername(), passwordHasher.hash(request.getPassword()), request.getName());
+            usernameFilter.put(request.getUsername());
+        } catch (DataIntegrityViolationException e) {
+            if (isDuplicateUsername(e)) {
+                usernameFilter.put(request.getUsername());
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Username already registered");
+            }
+            throw e;
+        }
+    }
 
-        userRepository.save(user);
+    //MySQL reports a duplicate key as error 1062 and names the key, only the primary key is the username
+    private boolean isDuplicateUsername(DataIntegrityViolationException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sqlException) {
+                return sqlException.getErrorCode() == 1062
+                        && Objects.toString(sqlException.getMessage(), "").contains("PRIMARY");
+            }
+        }
+        return false;
     }
 
     public UserResponse get(User user) {
+        user = load(user);
+
         return UserResponse.builder()
                 .username(user.getUsername())
                 .name(user.getName())
@@ -52,13 +76,14 @@ public class UserService {
     @Transactional
     public UserResponse update(User user, UpdateUserRequest request) {
         validationService.validate(request);
+        user = load(user);
 
         if (Objects.nonNull(request.getName())) {
             user.setName(request.getName());
         }
 
         if (Objects.nonNull(request.getPassword())) {
-            user.setPassword(BCrypt.hashpw(request.getPassword(), BCrypt.gensalt()));
+            user.setPassword(passwordHasher.hash(request.getPassword()));
         }
 
         userRepository.save(user);
@@ -69,4 +94,9 @@ public class UserService {
                 .build();
     }
 
+    //the resolved user only carries the username and its session
+    private User load(User user) {
+        return userRepository.findById(user.getUsername())
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorized"));
+    }
 }
@@ -0,0 +1,114 @@
+package yukinari.software.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bloom filter of the usernames that are taken, so registration can skip the lookup for a
+ * username that is definitely free and only looks one up before spending a hash on it when it
+ * may be taken.
+ * <p>
+ * The filter never answers "free" for a username this node has seen, but it is only a hint: it
+ * is filled from the users table once the application is ready, so registrations on other
+ * nodes and users deleted since are not reflected. The primary key still decides, a miss costs
+ * a hash and a stale bit a lookup.
+ */
+@Slf4j
+@Component
+public class UsernameFilter {
+
+    // about a 1% false positive rate at the expected number of usernames
+    private static final int BITS_PER_USERNAME = 10;
+
+    private static final int HASHES = 7;
+
+    @Value("${app.username-filter.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.username-filter.expected-usernames:1000000}")
+    private int expectedUsernames;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private volatile AtomicLongArray bits;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+
+        //published before loading, so registrations made meanwhile are kept
+        bits = new AtomicLongArray((int) Math.max(1, ((long) expectedUsernames * BITS_PER_USERNAME + 63) / 64));
+
+        long start = System.currentTimeMillis();
+        int[] count = new int[1];
+        jdbcTemplate.query(connection -> {
+            var statement = connection.prepareStatement("SELECT username FROM users");
+            //stream the rows instead of buffering the whole table
+            statement.setFetchSize(Integer.MIN_VALUE);
+            return statement;
+        }, resultSet -> {
+            put(resultSet.getString(1));
+            count[0]++;
+        });
+        log.info("Loaded {} usernames into the filter in {} ms", count[0], System.currentTimeMillis() - start);
+    }
+
+    /**
+     * False when the username is definitely free, true when it may be taken or the filter is off
+     * or not loaded yet.
+     */
+    public boolean mightBeTaken(String username) {
+        AtomicLongArray bits = this.bits;
+        if (bits == null) {
+            return enabled;
+        }
+
+        long size = bits.length() * 64L;
+        long hash = hash(username);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= HASHES; i++) {
+            long bit = Integer.toUnsignedLong(hash1 + i * hash2) % size;
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void put(String username) {
+        AtomicLongArray bits = this.bits;
+        if (bits == null) {
+            return;
+        }
+
+        long size = bits.length() * 64L;
+        long hash = hash(username);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= HASHES; i++) {
+            long bit = Integer.toUnsignedLong(hash1 + i * hash2) % size;
+            bits.getAndAccumulate((int) (bit >>> 6), 1L << bit, (word, mask) -> word | mask);
+        }
+    }
+
+    //64 bit FNV-1a, split into the two hashes of the double hashing scheme
+    private static long hash(String username) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < username.length(); i++) {
+            hash ^= username.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash ^ (hash >>> 29);
+    }
+}
@@ -2,6 +2,9 @@ package yukinari.software.controller;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,26 +12,37 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import yukinari.software.entity.Address;
 import yukinari.software.entity.Contact;
 import yukinari.software.entity.User;
+import yukinari.software.entity.UserSession;
 import yukinari.software.model.AddressResponse;
+import yukinari.software.model.ContactResponse;
 import yukinari.software.model.CreateAddressRequest;
+import yukinari.software.model.NearbyContactResponse;
 import yukinari.software.model.UpdateAddressRequest;
 import yukinari.software.model.WebResponse;
 import yukinari.software.repository.AddressRepository;
 import yukinari.software.repository.ContactRepository;
 import yukinari.software.repository.UserRepository;
+import yukinari.software.repository.UserSessionRepository;
 import yukinari.software.security.BCrypt;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
-@SpringBootTest
+@SpringBootTest(properties = {
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "logging.level.org.hibernate.engine.internal.StatisticalLoggingSessionEventListener=warn"
+})
 @AutoConfigureMockMvc
 class AddressControllerTest {
 
@@ -38,6 +52,9 @@ class AddressControllerTest {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private UserSessionRepository userSessionRepository;
+
     @Autowired
     private AddressRepository addressRepository;
 
@@ -47,19 +64,22 @@ class AddressControllerTest {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
     @BeforeEach
     void setUp() {
         addressRepository.deleteAll();
         contactRepository.deleteAll();
+        userSessionRepository.deleteAll();
         userRepository.deleteAll();
 
         User user = new User();
         user.setName("Test");
         user.setUsername("test");
         user.setPassword(BCrypt.hashpw("test", BCrypt.gensalt()));
-        user.setToken("test");
-        user.setTokenExpiredAt(System.currentTimeMillis() * 100000000L);
         userRepository.save(user);
+        userSessionRepository.save(new UserSession("test", "test", System.currentTimeMillis() + 1000000L));
 
         Contact contact = new Contact();
         contact.setId("test");
@@ -142,6 +162,76 @@ class AddressControllerTest {
                 });
     }
 
+    @Test
+    void getAddressOfOtherUser() throws Exception {
+        User other = new User();
+        other.setName("Other");
+        other.setUsername("other");
+        other.setPassword("other");
+        userRepository.save(other);
+
+        Contact contact = new Contact();
+        contact.setId("other");
+        contact.setUser(other);
+        contact.setFirstName("other");
+        contactRepository.save(contact);
+
+        Address address = new Address();
+        address.setContact(contact);
+        address.setId("other");
+        address.setCountry("japan");
+        addressRepository.save(address);
+
+        mockMvc.perform(get("/api/contacts/other/addresses/other")
+                        .header("X-API-TOKEN", "test")
+                        .accept(MediaType.APPLICATION_JSON)
+                ).andExpectAll(
+                        status().isBadRequest())
+                .andDo(result -> {
+                    WebResponse<String> response = objectMapper.readValue(result.getResponse()
+                            .getContentAsString(), new TypeReference<>() {
+                    });
+
+                    assertEquals("contact not found", response.getErrors());
+                });
+
+        mockMvc.perform(get("/api/contacts/test/addresses/other")
+                        .header("X-API-TOKEN", "test")
+                        .accept(MediaType.APPLICATION_JSON)
+                ).andExpectAll(
+                        status().isBadRequest())
+                .andDo(result -> {
+                    WebResponse<String> response = objectMapper.readValue(result.getResponse()
+                            .getContentAsString(), new TypeReference<>() {
+                    });
+
+                    assertEquals("address not found", response.getErrors());
+                });
+    }
+
+    @Test
+    void getAddressSingleQuery() throws Exception {
+        Contact contact = contactRepository.findById("test").orElseThrow();
+
+        Address address = new Address();
+        address.setContact(contact);
+        address.setId("test");
+        address.setCountry("japan");
+        addressRepository.save(address);
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        mockMvc.perform(get("/api/contacts/test/addresses/test")
+                        .header("X-API-TOKEN", "test")
+                        .accept(MediaType.APPLICATION_JSON)
+                ).andExpectAll(
+                        status().isOk());
+
+        //token and address
+        assertEquals(2, statistics.getPrepareStatementCount());
+    }
+
     @Test
     void getAddressSuccess() throws Exception {
         Contact contact = contactRepository.findById("test").orElseThrow();
@@ -194,6 +284,49 @@ class AddressControllerTest {
                 });
     }
 
+    @Test
+    void updateAddressConflict() throws Exception {
+        Contact contact = contactRepository.findById("test").orElseThrow();
+
+        Address address = new Address();
+        address.setContact(contact);
+        address.setId("test");
+        address.setCountry("japan");
+        addressRepository.save(address);
+
+        UpdateAddressRequest request = new UpdateAddressRequest();
+        request.setCountry("indonesia");
+        request.setVersion(address.getVersion() + 1);
+
+        mockMvc.perform(put("/api/contacts/test/addresses/test")
+                        .header("X-API-TOKEN", "test")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request))
+                ).andExpectAll(
+                        status().isConflict());
+
+        assertEquals("japan", addressRepository.findById("test").orElseThrow().getCountry());
+
+        //without a version the last write wins
+        request.setVersion(null);
+        mockMvc.perform(put("/api/contacts/test/addresses/test")
+                        .header("X-API-TOKEN", "test")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request))
+                ).andExpectAll(
+                        status().isOk())
+                .andDo(result -> {
+                    WebResponse<AddressResponse> response = objectMapper.readValue(result.getResponse()
+                            .getContentAsString(), new TypeReference<>() {
+                    });
+
+                    assertEquals("indonesia", response.getData().getCountry());
+                    assertEquals(address.getVersion() + 1, response.getData().getVersion());
+                });
+    }
+
     @Test
     void updateAddressSuccess() throws Exception {
 
@@ -325,5 +458,312 @@ class AddressControllerTest {
         });
     }
 
+    @Test
+    void listAddressPaged() throws Exception {
+        Contact contact = contactRepository.findById("test").orElseThrow();
+
+        for (int i = 0; i < 5; i++) {
+            Address address = new Address();
+            address.setId("test-" + i);
+            address.setContact(contact);
+            address.setCountry("japan");
+            addressRepository.save(address);
+        }
 
-}
\ No newline at end of file
+        mockMvc.perform(
+                get("/api/contacts/test/addresses")
+                        .queryParam("page", "2")
+                        .queryParam("size", "2")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header("X-API-TOKEN", "test")
+        ).andExpectAll(
+                status().isOk()
+        ).andDo(result -> {
+            WebResponse<List<AddressResponse>> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+            });
+            assertEquals(1, response.getData().size());
+            assertEquals("test-4", response.getData().get(0).getId());
+            assertEquals(3, response.getPaging().getTotalPage());
+        });
+
+        List<String> ids = new ArrayList<>();
+        String cursor = "";
+        while (cursor != null) {
+            MvcResult result = mockMvc.perform(
+                    get("/api/contacts/test/addresses")
+                            .queryParam("cursor", cursor)
+                            .queryParam("size", "2")
+                            .accept(MediaType.APPLICATION_JSON)
+                            .header("X-API-TOKEN", "test")
+            ).andExpectAll(
+                    status().isOk()
+            ).andReturn();
+
+            WebResponse<List<AddressResponse>> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+            });
+            response.getData().forEach(address -> ids.add(address.getId()));
+            cursor = response.getPaging().getNextCursor();
+        }
+
+        assertEquals(List.of("test-0", "test-1", "test-2", "test-3", "test-4"), ids);
+    }
+
+    @Test
+    void listAddressPagedBadRequest() throws Exception {
+        Contact contact = contactRepository.findById("test").orElseThrow();
+
+        Address address = new Address();
+        address.setId("test-0");
+        address.setContact(contact);
+        address.setCountry("japan");
+        addressRepository.save(address);
+
+        List<Map<String, String>> params = List.of(
+                Map.of("cursor", "", "size", "0"),
+                Map.of("cursor", "", "size", "-1"),
+                Map.of("cursor", "", "size", "101"),
+                Map.of("page", "0", "size", "0"),
+                Map.of("page", "-1", "size", "2"));
+
+        for (Map<String, String> param : params) {
+            MockHttpServletRequestBuilder request = get("/api/contacts/test/addresses")
+                    .accept(MediaType.APPLICATION_JSON)
+                    .header("X-API-TOKEN", "test");
+            param.forEach(request::queryParam);
+
+            mockMvc.perform(request).andExpectAll(
+                    status().isBadRequest()
+            ).andDo(result -> {
+                WebResponse<String> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+                });
+                assertNotNull(response.getErrors());
+            });
+        }
+    }
+
+    @Test
+    void createAllAddresses() throws Exception {
+        List<CreateAddressRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            requests.add(CreateAddressRequest.builder().city("kitami" + i).country("japan").build());
+        }
+
+        mockMvc.perform(post("/api/contacts/test/addresses/bulk")
+                .header("X-API-TOKEN", "test")
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(requests))
+        ).andExpectAll(
+                status().isOk()
+        ).andDo(result -> {
+            WebResponse<List<AddressResponse>> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+            });
+            assertNull(response.getErrors());
+            assertEquals(3, response.getData().size());
+        });
+
+        assertEquals(3, addressRepository.count());
+
+        requests.add(CreateAddressRequest.builder().city("kitami").build());
+
+        mockMvc.perform(post("/api/contacts/test/addresses/bulk")
+                .header("X-API-TOKEN", "test")
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(requests))
+        ).andExpectAll(
+                status().isBadRequest()
+        ).andDo(result -> {
+            WebResponse<String> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+            });
+            assertTrue(response.getErrors().startsWith("Address 4: "));
+        });
+
+        assertEquals(3, addressRepository.count());
+    }
+
+    @Test
+    void searchContactsByAddress() throws Exception {
+        User user = userRepository.findById("test").orElseThrow();
+
+        User other = new User();
+        other.setName("Other");
+        other.setUsername("other");
+        other.setPassword("other");
+        userRepository.save(other);
+
+        String[][] addresses = {
+                {"test", "test", "Bandung", "40111"},
+                {"test", "test", "Bandung", "40112"},
+                {"test", "test-b", "bandung", "40123"},
+                {"test", "test-c", "Jakarta", "10110"},
+                {"other", "other", "Bandung", "40111"},
+        };
+        for (int i = 0; i < addresses.length; i++) {
+            String contactId = addresses[i][1];
+            Contact contact = contactRepository.findById(contactId).orElseGet(() -> {
+                Contact created = new Contact();
+                created.setId(contactId);
+                created.setUser(contactId.equals("other") ? other : user);
+                created.setFirstName(contactId);
+                return contactRepository.save(created);
+            });
+
+            Address address = new Address();
+            address.setId("address-" + i);
+            address.setContact(contact);
+            address.setCity(addresses[i][2]);
+            address.setCountry("Indonesia");
+            address.setPostalCode(addresses[i][3]);
+            addressRepository.save(address);
+        }
+
+        List<String> ids = new ArrayList<>();
+        String cursor = "";
+        while (cursor != null) {
+            MvcResult result = mockMvc.perform(
+                    get("/api/addresses/search")
+                            .queryParam("city", "BANDUNG")
+                            .queryParam("cursor", cursor)
+                            .queryParam("size", "1")
+                            .accept(MediaType.APPLICATION_JSON)
+                            .header("X-API-TOKEN", "test")
+            ).andExpectAll(
+                    status().isOk()
+            ).andReturn();
+
+            WebResponse<List<ContactResponse>> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+            });
+            response.getData().forEach(contact -> ids.add(contact.getId()));
+            cursor = response.getPaging().getNextCursor();
+        }
+
+        assertEquals(List.of("test", "test-b"), ids);
+
+        mockMvc.perform(
+                get("/api/addresses/search")
+                        .queryParam("postalCode", "4011")
+                        .queryParam("country", "indonesia")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header("X-API-TOKEN", "test")
+        ).andExpectAll(
+                status().isOk()
+        ).andDo(result -> {
+            WebResponse<List<ContactResponse>> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+            });
+            assertEquals(1, response.getData().size());
+            assertEquals("test", response.getData().get(0).getId());
+        });
+
+        mockMvc.perform(
+                get("/api/addresses/search")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header("X-API-TOKEN", "test")
+        ).andExpectAll(
+                status().isBadRequest()
+        );
+
+        for (String size : List.of("0", "-1", "101")) {
+            mockMvc.perform(
+                    get("/api/addresses/search")
+                            .queryParam("country", "indonesia")
+                            .queryParam("cursor", "")
+                            .queryParam("size", size)
+                            .accept(MediaType.APPLICATION_JSON)
+                            .header("X-API-TOKEN", "test")
+            ).andExpectAll(
+                    status().isBadRequest()
+            );
+        }
+    }
+
+    @Test
+    void nearbyContacts() throws Exception {
+        User user = userRepository.findById("test").orElseThrow();
+
+        //bandung, two points near it and jakarta
+        double[][] points = {{-6.9220, 107.6191}, {-6.2088, 106.8456}, {-6.9000, 107.6191}, {-6.2000, 106.8400}};
+        String[] contactIds = {"test", "test", "test-b", "test-c"};
+        for (int i = 0; i < points.length; i++) {
+            String contactId = contactIds[i];
+            Contact contact = contactRepository.findById(contactId).orElseGet(() -> {
+                Contact created = new Contact();
+                created.setId(contactId);
+                created.setUser(user);
+                created.setFirstName(contactId);
+                return contactRepository.save(created);
+            });
+
+            CreateAddressRequest request = CreateAddressRequest.builder()
+                    .country("indonesia")
+                    .latitude(points[i][0])
+                    .longitude(points[i][1])
+                    .build();
+
+            mockMvc.perform(post("/api/contacts/" + contact.getId() + "/addresses")
+                    .header("X-API-TOKEN", "test")
+                    .accept(MediaType.APPLICATION_JSON)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(objectMapper.writeValueAsString(request))
+            ).andExpectAll(
+                    status().isOk()
+            );
+        }
+
+        mockMvc.perform(
+                get("/api/addresses/nearby")
+                        .queryParam("latitude", "-6.9175")
+                        .queryParam("longitude", "107.6191")
+                        .queryParam("radius", "5000")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header("X-API-TOKEN", "test")
+        ).andExpectAll(
+                status().isOk()
+        ).andDo(result -> {
+            WebResponse<List<NearbyContactResponse>> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+            });
+            assertEquals(List.of("test", "test-b"), response.getData().stream().map(nearby -> nearby.getContact().getId()).toList());
+            assertEquals(500, response.getData().get(0).getDistance(), 5);
+            assertEquals(-6.9220, response.getData().get(0).getAddress().getLatitude());
+        });
+
+        mockMvc.perform(
+                get("/api/addresses/nearby")
+                        .queryParam("minLatitude", "-6.3")
+                        .queryParam("minLongitude", "106.7")
+                        .queryParam("maxLatitude", "-6.1")
+                        .queryParam("maxLongitude", "106.9")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header("X-API-TOKEN", "test")
+        ).andExpectAll(
+                status().isOk()
+        ).andDo(result -> {
+            WebResponse<List<NearbyContactResponse>> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+            });
+            assertEquals(List.of("test-c", "test"), response.getData().stream().map(nearby -> nearby.getContact().getId()).toList());
+        });
+
+        mockMvc.perform(
+                get("/api/addresses/nearby")
+                        .queryParam("latitude", "-6.9175")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header("X-API-TOKEN", "test")
+        ).andExpectAll(
+                status().isBadRequest()
+        );
+
+        for (String size : List.of("0", "101")) {
+            mockMvc.perform(
+                    get("/api/addresses/nearby")
+                            .queryParam("latitude", "-6.9175")
+                            .queryParam("longitude", "107.6191")
+                            .queryParam("radius", "1000")
+                            .queryParam("size", size)
+                            .accept(MediaType.APPLICATION_JSON)
+                            .header("X-API-TOKEN", "test")
+            ).andExpectAll(
+                    status().isBadRequest()
+            );
+        }
+    }
+}
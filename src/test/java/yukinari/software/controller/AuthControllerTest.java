@@ -9,20 +9,38 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import yukinari.software.entity.User;
+import yukinari.software.entity.UserSession;
 import yukinari.software.model.LoginUserRequest;
 import yukinari.software.model.TokenResponse;
 import yukinari.software.model.WebResponse;
 import yukinari.software.repository.UserRepository;
+import yukinari.software.repository.UserSessionRepository;
 import yukinari.software.security.BCrypt;
+import yukinari.software.security.PasswordHasher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.hibernate.validator.internal.util.Contracts.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
-@SpringBootTest
+@SpringBootTest(properties = {
+        "app.password-hasher.threads=1",
+        "app.password-hasher.queue-capacity=1",
+        "spring.datasource.hikari.maximum-pool-size=2",
+        "spring.datasource.hikari.minimum-idle=2",
+        "spring.datasource.hikari.connection-timeout=250"
+})
 @AutoConfigureMockMvc
 class AuthControllerTest {
 
@@ -32,11 +50,18 @@ class AuthControllerTest {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private UserSessionRepository userSessionRepository;
+
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private PasswordHasher passwordHasher;
+
     @BeforeEach
     void setUp() {
+        userSessionRepository.deleteAll();
         userRepository.deleteAll();
     }
 
@@ -82,6 +107,32 @@ class AuthControllerTest {
                 });
     }
 
+    @Test
+    void loginThrottled() throws Exception {
+        LoginUserRequest request = new LoginUserRequest();
+        request.setUsername("throttled");
+        request.setPassword("wrong");
+
+        for (int i = 0; i < 5; i++) {
+            mockMvc.perform(post("/api/auth/login")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .accept(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(request)))
+                    .andExpectAll(status().isUnauthorized());
+        }
+
+        mockMvc.perform(post("/api/auth/login")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpectAll(status().isTooManyRequests())
+                .andDo(result -> {
+                    WebResponse<String> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+                    });
+                    assertNotNull(response.getErrors());
+                });
+    }
+
     @Test
     void loginSuccess() throws Exception {
         User user = new User();
@@ -108,13 +159,100 @@ class AuthControllerTest {
             assertNotNull(response.getData().getToken());
             assertNotNull(response.getData().getExpiredAt());
 
-            User userDb = userRepository.findById("test").orElse(null);
-            assertNotNull(userDb);
-            assertEquals(userDb.getToken(), response.getData().getToken());
-            assertEquals(userDb.getTokenExpiredAt(), response.getData().getExpiredAt());
+            UserSession sessionDb = userSessionRepository.findById(response.getData().getToken()).orElse(null);
+            assertNotNull(sessionDb);
+            assertEquals("test", sessionDb.getUsername());
+            assertEquals(sessionDb.getExpiredAt(), response.getData().getExpiredAt());
         });
     }
 
+    @Test
+    void loginRehashesOutdatedPassword() throws Exception {
+        User user = new User();
+        user.setName("Test");
+        user.setUsername("test");
+        user.setPassword(BCrypt.hashpw("test", BCrypt.gensalt(4)));
+        userRepository.save(user);
+
+        LoginUserRequest request = new LoginUserRequest();
+        request.setUsername("test");
+        request.setPassword("test");
+
+        mockMvc.perform(
+                post("/api/auth/login")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request))
+        ).andExpectAll(
+                status().isOk()
+        );
+
+        //the new hash is written in the background
+        String prefix = String.format("$2a$%02d$", passwordHasher.getLogRounds());
+        String password = null;
+        for (int i = 0; i < 100; i++) {
+            password = userRepository.findById("test").orElseThrow().getPassword();
+            if (password.startsWith(prefix)) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+
+        assertTrue(password.startsWith(prefix), password);
+        assertTrue(BCrypt.checkpw("test", password));
+    }
+
+    @Test
+    void loginSaturatedHasher() throws Exception {
+        //a slow hash keeps the single hasher thread and its one queue slot busy
+        User user = new User();
+        user.setName("Test");
+        user.setUsername("test");
+        user.setPassword(BCrypt.hashpw("test", BCrypt.gensalt(13)));
+        userRepository.save(user);
+        userSessionRepository.save(new UserSession("test", "test", System.currentTimeMillis() + 1000000L));
+
+        LoginUserRequest request = new LoginUserRequest();
+        request.setUsername("test");
+        request.setPassword("test");
+        String body = objectMapper.writeValueAsString(request);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<MvcResult>> logins = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                logins.add(executor.submit(() -> mockMvc.perform(post("/api/auth/login")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.APPLICATION_JSON)
+                        .content(body)).andReturn()));
+            }
+            Thread.sleep(300);
+
+            //logins waiting for the hasher hold no connection, the two in the pool stay free for the rest
+            mockMvc.perform(get("/api/users/current")
+                            .accept(MediaType.APPLICATION_JSON)
+                            .header("X-API-TOKEN", "test"))
+                    .andExpectAll(status().isOk());
+
+            int ok = 0;
+            int busy = 0;
+            for (Future<MvcResult> login : logins) {
+                MvcResult result = login.get();
+                if (result.getResponse().getStatus() == 200) {
+                    ok++;
+                } else {
+                    assertEquals(503, result.getResponse().getStatus());
+                    assertNotNull(result.getResponse().getHeader("Retry-After"));
+                    busy++;
+                }
+            }
+            assertTrue(ok >= 1);
+            assertTrue(busy >= 1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     @Test
     void testLogOutFailed() throws Exception {
         mockMvc.perform(delete("/api/auth/logout")
@@ -134,9 +272,8 @@ class AuthControllerTest {
         user.setName("Test");
         user.setUsername("test");
         user.setPassword(BCrypt.hashpw("test", BCrypt.gensalt()));
-        user.setToken("test");
-        user.setTokenExpiredAt(System.currentTimeMillis() * 100000000L);
         userRepository.save(user);
+        userSessionRepository.save(new UserSession("test", "test", System.currentTimeMillis() + 1000000L));
 
         mockMvc.perform(delete("/api/auth/logout")
                         .accept(MediaType.APPLICATION_JSON)
@@ -149,10 +286,35 @@ class AuthControllerTest {
                     assertNull(response.getErrors());
                     assertEquals("ok", response.getData());
 
-                    User userDb = userRepository.findById("test").orElse(null);
-                    assertNotNull(userDb);
-                    assertNull(userDb.getToken());
-                    assertNull(userDb.getTokenExpiredAt());
+                    assertFalse(userSessionRepository.existsById("test"));
                 });
     }
+
+    @Test
+    void testLogOutAllSuccess() throws Exception {
+        User user = new User();
+        user.setName("Test");
+        user.setUsername("test");
+        user.setPassword(BCrypt.hashpw("test", BCrypt.gensalt()));
+        userRepository.save(user);
+        userSessionRepository.save(new UserSession("test", "test", System.currentTimeMillis() + 1000000L));
+        userSessionRepository.save(new UserSession("test2", "test", System.currentTimeMillis() + 1000000L));
+
+        mockMvc.perform(delete("/api/auth/logout-all")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header("X-API-TOKEN", "test"))
+                .andExpectAll(status().isOk())
+                .andDo(result -> {
+                    WebResponse<String> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+                    });
+
+                    assertNull(response.getErrors());
+                    assertEquals(0, userSessionRepository.count());
+                });
+
+        mockMvc.perform(get("/api/users/current")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header("X-API-TOKEN", "test2"))
+                .andExpectAll(status().isUnauthorized());
+    }
 }
\ No newline at end of file
@@ -2,24 +2,49 @@ package yukinari.software.controller;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import yukinari.software.entity.Address;
 import yukinari.software.entity.Contact;
 import yukinari.software.entity.User;
+import yukinari.software.entity.UserSession;
+import yukinari.software.model.BulkContactError;
+import yukinari.software.model.BulkContactFilter;
+import yukinari.software.model.BulkContactResponse;
+import yukinari.software.model.BulkDeleteContactRequest;
+import yukinari.software.model.BulkOperationResponse;
+import yukinari.software.model.BulkUpdateContactRequest;
 import yukinari.software.model.ContactResponse;
 import yukinari.software.model.CreateContactRequest;
 import yukinari.software.model.UpdateContactRequest;
 import yukinari.software.model.WebResponse;
+import yukinari.software.repository.AddressRepository;
 import yukinari.software.repository.ContactRepository;
 import yukinari.software.repository.UserRepository;
+import yukinari.software.repository.UserSessionRepository;
+import yukinari.software.service.ContactCountCache;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -27,7 +52,13 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 import static org.junit.jupiter.api.Assertions.*;
 
 
-@SpringBootTest
+@SpringBootTest(properties = {
+        "app.contact-count-cache.enabled=true",
+        "app.contact-bulk.chunk-size=3",
+        "app.contact-import.validation-threads=2",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "logging.level.org.hibernate.engine.internal.StatisticalLoggingSessionEventListener=warn"
+})
 @AutoConfigureMockMvc
 class ContactControllerTest {
 
@@ -37,24 +68,38 @@ class ContactControllerTest {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private UserSessionRepository userSessionRepository;
+
     @Autowired
     private ContactRepository contactRepository;
 
+    @Autowired
+    private AddressRepository addressRepository;
+
+    @Autowired
+    private ContactCountCache contactCountCache;
+
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
     @BeforeEach
     void setUp() {
+        contactCountCache.invalidate("test");
+        addressRepository.deleteAll();
         contactRepository.deleteAll();
+        userSessionRepository.deleteAll();
         userRepository.deleteAll();
 
         User user = new User();
         user.setUsername("test");
         user.setPassword("test");
         user.setName("Test");
-        user.setToken("test");
-        user.setTokenExpiredAt(System.currentTimeMillis() * 1000000);
         userRepository.save(user);
+        userSessionRepository.save(new UserSession("test", "test", System.currentTimeMillis() + 1000000L));
     }
 
     @Test
@@ -104,6 +149,74 @@ class ContactControllerTest {
         });
     }
 
+    @Test
+    void bulkCreateContacts() throws Exception {
+        String body = """
+                [
+                  {"firstName": "test1", "lastName": "test", "email": "test1@mail.jp"},
+                  {"firstName": ""},
+                  {"firstName": "test3", "email": "salah"},
+                  "test4",
+                  {"firstName": "test5", "phone": "8123456789"}
+                ]
+                """;
+
+        mockMvc.perform(
+                post("/api/contacts/bulk")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body)
+                        .header("X-API-TOKEN", "test")
+        ).andExpectAll(
+                status().isOk()
+        ).andDo(result -> {
+            WebResponse<BulkContactResponse> response = objectMapper.readValue(result.getResponse().getContentAsString(),
+                    new TypeReference<>() {
+                    });
+
+            assertNull(response.getErrors());
+            assertEquals(2, response.getData().getCreated());
+            assertEquals(3, response.getData().getFailed());
+            assertEquals(List.of(2, 3, 4), response.getData().getErrors().stream().map(BulkContactError::getRow).toList());
+        });
+
+        assertEquals(2, contactRepository.count());
+
+        //time-ordered ids sort in the order the contacts were created
+        List<Contact> contacts = contactRepository.findAll(Sort.by("id"));
+        assertEquals(List.of("test1", "test5"), contacts.stream().map(Contact::getFirstName).toList());
+        assertTrue(contacts.stream().allMatch(contact -> UUID.fromString(contact.getId()).version() == 7));
+    }
+
+    @Test
+    void bulkCreateContactsCsv() throws Exception {
+        String body = "first_name,last_name,email,phone\r\n" +
+                "test1,\"Test, \"\"Jr\"\"\",test1@mail.jp,8123456789\r\n" +
+                "\r\n" +
+                ",test,,\r\n" +
+                "test3,,,";
+
+        mockMvc.perform(
+                post("/api/contacts/bulk")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .contentType("text/csv")
+                        .content(body)
+                        .header("X-API-TOKEN", "test")
+        ).andExpectAll(
+                status().isOk()
+        ).andDo(result -> {
+            WebResponse<BulkContactResponse> response = objectMapper.readValue(result.getResponse().getContentAsString(),
+                    new TypeReference<>() {
+                    });
+
+            assertEquals(2, response.getData().getCreated());
+            assertEquals(1, response.getData().getFailed());
+            assertEquals(2, response.getData().getErrors().get(0).getRow());
+        });
+
+        assertTrue(contactRepository.findAll().stream().anyMatch(contact -> "Test, \"Jr\"".equals(contact.getLastName())));
+    }
+
     @Test
     void getContactNotFound() throws Exception {
         mockMvc.perform(
@@ -204,6 +317,55 @@ class ContactControllerTest {
         });
     }
 
+    @Test
+    void updateContactConflict() throws Exception {
+        User user = userRepository.findById("test").orElseThrow();
+
+        Contact contact = new Contact();
+        contact.setId(UUID.randomUUID().toString());
+        contact.setUser(user);
+        contact.setFirstName("test");
+        contactRepository.save(contact);
+
+        UpdateContactRequest request = new UpdateContactRequest();
+        request.setFirstName("yuki");
+        request.setVersion(contact.getVersion());
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        mockMvc.perform(
+                put("/api/contacts/" + contact.getId())
+                        .accept(MediaType.APPLICATION_JSON)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request))
+                        .header("X-API-TOKEN", "test")
+        ).andExpectAll(
+                status().isOk()
+        ).andDo(result -> {
+            WebResponse<ContactResponse> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+            });
+            assertEquals(contact.getVersion() + 1, response.getData().getVersion());
+        });
+
+        //token and the conditional update
+        assertEquals(2, statistics.getPrepareStatementCount());
+
+        //the same version again has been overwritten in between
+        request.setFirstName("kino");
+        mockMvc.perform(
+                put("/api/contacts/" + contact.getId())
+                        .accept(MediaType.APPLICATION_JSON)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request))
+                        .header("X-API-TOKEN", "test")
+        ).andExpectAll(
+                status().isConflict()
+        );
+
+        assertEquals("yuki", contactRepository.findById(contact.getId()).orElseThrow().getFirstName());
+    }
+
     @Test
     void deleteContactSuccess() throws Exception {
         User user = userRepository.findById("test").orElseThrow();
@@ -232,6 +394,231 @@ class ContactControllerTest {
         });
     }
 
+    @Test
+    void bulkDeleteContacts() throws Exception {
+        User user = userRepository.findById("test").orElseThrow();
+
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Contact contact = new Contact();
+            contact.setId(UUID.randomUUID().toString());
+            contact.setUser(user);
+            contact.setFirstName((i < 7 ? "delete" : "keep") + i);
+            contactRepository.save(contact);
+            ids.add(contact.getId());
+
+            Address address = new Address();
+            address.setId(UUID.randomUUID().toString());
+            address.setContact(contact);
+            address.setCountry("Japan");
+            addressRepository.save(address);
+        }
+
+        BulkDeleteContactRequest byIds = BulkDeleteContactRequest.builder()
+                .ids(List.of(ids.get(0), ids.get(1), ids.get(1), "not-found"))
+                .build();
+
+        mockMvc.perform(
+                post("/api/contacts/bulk/delete")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(byIds))
+                        .header("X-API-TOKEN", "test")
+        ).andExpectAll(
+                status().isOk()
+        ).andDo(result -> {
+            WebResponse<BulkOperationResponse> response = objectMapper.readValue(result.getResponse().getContentAsString(),
+                    new TypeReference<>() {
+                    });
+            assertEquals(2, response.getData().getContacts());
+            assertEquals(2, response.getData().getAddresses());
+        });
+
+        BulkDeleteContactRequest byFilter = BulkDeleteContactRequest.builder()
+                .filter(BulkContactFilter.builder().name("delete").build())
+                .build();
+
+        mockMvc.perform(
+                post("/api/contacts/bulk/delete")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(byFilter))
+                        .header("X-API-TOKEN", "test")
+        ).andExpectAll(
+                status().isOk()
+        ).andDo(result -> {
+            WebResponse<BulkOperationResponse> response = objectMapper.readValue(result.getResponse().getContentAsString(),
+                    new TypeReference<>() {
+                    });
+            assertEquals(5, response.getData().getContacts());
+            assertEquals(5, response.getData().getAddresses());
+        });
+
+        assertEquals(3, contactRepository.count());
+        assertEquals(3, addressRepository.count());
+    }
+
+    @Test
+    void bulkDeleteContactsEmptyFilter() throws Exception {
+        User user = userRepository.findById("test").orElseThrow();
+
+        Contact contact = new Contact();
+        contact.setId(UUID.randomUUID().toString());
+        contact.setUser(user);
+        contact.setFirstName("keep");
+        contactRepository.save(contact);
+
+        for (BulkContactFilter filter : List.of(new BulkContactFilter(), BulkContactFilter.builder().name(" ").build())) {
+            BulkDeleteContactRequest request = BulkDeleteContactRequest.builder()
+                    .filter(filter)
+                    .build();
+
+            mockMvc.perform(
+                    post("/api/contacts/bulk/delete")
+                            .accept(MediaType.APPLICATION_JSON)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(request))
+                            .header("X-API-TOKEN", "test")
+            ).andExpectAll(
+                    status().isBadRequest()
+            ).andDo(result -> {
+                WebResponse<String> response = objectMapper.readValue(result.getResponse().getContentAsString(),
+                        new TypeReference<>() {
+                        });
+                assertNotNull(response.getErrors());
+            });
+        }
+
+        assertEquals(1, contactRepository.count());
+    }
+
+    @Test
+    void bulkUpdateContacts() throws Exception {
+        User user = userRepository.findById("test").orElseThrow();
+
+        for (int i = 0; i < 8; i++) {
+            Contact contact = new Contact();
+            contact.setId(UUID.randomUUID().toString());
+            contact.setUser(user);
+            contact.setFirstName("test" + i);
+            contact.setLastName(i < 5 ? "old" : "other");
+            contactRepository.save(contact);
+        }
+
+        BulkUpdateContactRequest request = BulkUpdateContactRequest.builder()
+                .filter(BulkContactFilter.builder().name("old").build())
+                .lastName("new")
+                .build();
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        mockMvc.perform(
+                post("/api/contacts/bulk/update")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request))
+                        .header("X-API-TOKEN", "test")
+        ).andExpectAll(
+                status().isOk()
+        ).andDo(result -> {
+            WebResponse<BulkOperationResponse> response = objectMapper.readValue(result.getResponse().getContentAsString(),
+                    new TypeReference<>() {
+                    });
+            assertEquals(5, response.getData().getContacts());
+        });
+
+        //the filter only selects ids, over two chunks
+        assertEquals(0, statistics.getEntityStatistics(Contact.class.getName()).getLoadCount());
+
+        assertEquals(5, contactRepository.findAll().stream().filter(contact -> "new".equals(contact.getLastName())).count());
+
+        mockMvc.perform(
+                post("/api/contacts/bulk/update")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(BulkUpdateContactRequest.builder()
+                                .filter(new BulkContactFilter())
+                                .build()))
+                        .header("X-API-TOKEN", "test")
+        ).andExpectAll(
+                status().isBadRequest()
+        );
+    }
+
+    @Test
+    void searchContactExpandAddresses() throws Exception {
+        User user = userRepository.findById("test").orElseThrow();
+
+        for (int i = 0; i < 5; i++) {
+            Contact contact = new Contact();
+            contact.setId(UUID.randomUUID().toString());
+            contact.setUser(user);
+            contact.setFirstName("test" + i);
+            contactRepository.save(contact);
+
+            for (int j = 0; j < 2; j++) {
+                Address address = new Address();
+                address.setId(UUID.randomUUID().toString());
+                address.setContact(contact);
+                address.setCountry("Japan");
+                addressRepository.save(address);
+            }
+        }
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        contactCountCache.invalidate("test");
+        statistics.clear();
+        mockMvc.perform(
+                get("/api/contacts")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header("X-API-TOKEN", "test")
+        ).andExpectAll(
+                status().isOk()
+        );
+        long withoutExpand = statistics.getPrepareStatementCount();
+
+        contactCountCache.invalidate("test");
+        statistics.clear();
+        mockMvc.perform(
+                get("/api/contacts")
+                        .queryParam("expand", "addresses")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header("X-API-TOKEN", "test")
+        ).andExpectAll(
+                status().isOk()
+        ).andDo(result -> {
+            WebResponse<List<ContactResponse>> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+            });
+            assertEquals(5, response.getData().size());
+            for (ContactResponse contactResponse : response.getData()) {
+                assertEquals(2, contactResponse.getAddresses().size());
+            }
+        });
+
+        //the addresses of the whole page come from one extra query
+        assertEquals(withoutExpand + 1, statistics.getPrepareStatementCount());
+
+        String contactId = contactRepository.findAll().get(0).getId();
+        statistics.clear();
+        mockMvc.perform(
+                get("/api/contacts/" + contactId)
+                        .queryParam("expand", "addresses")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header("X-API-TOKEN", "test")
+        ).andExpectAll(
+                status().isOk()
+        ).andDo(result -> {
+            WebResponse<ContactResponse> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+            });
+            assertEquals(2, response.getData().getAddresses().size());
+        });
+
+        //token, contact and addresses
+        assertEquals(3, statistics.getPrepareStatementCount());
+    }
+
     @Test
     void searchContactNotFound() throws Exception {
         mockMvc.perform(
@@ -321,4 +708,320 @@ class ContactControllerTest {
         });
 
     }
-}
\ No newline at end of file
+
+    @Test
+    void searchContactByCursor() throws Exception {
+        User user = userRepository.findById("test").orElseThrow();
+
+        for (int i = 0; i < 25; i++) {
+            Contact contact = new Contact();
+            contact.setId(UUID.randomUUID().toString());
+            contact.setUser(user);
+            contact.setFirstName("test");
+            contact.setLastName("test");
+            contact.setEmail("test@example.com");
+            contact.setPhone("9238423432");
+            contactRepository.save(contact);
+        }
+
+        Set<String> ids = new HashSet<>();
+        String cursor = "";
+        int pages = 0;
+
+        while (cursor != null) {
+            WebResponse<List<ContactResponse>> response = objectMapper.readValue(mockMvc.perform(
+                    get("/api/contacts")
+                            .accept(MediaType.APPLICATION_JSON)
+                            .header("X-API-TOKEN", "test")
+                            .queryParam("name", "test")
+                            .queryParam("cursor", cursor)
+            ).andExpectAll(
+                    status().isOk()
+            ).andReturn().getResponse().getContentAsString(), new TypeReference<>() {
+            });
+
+            assertNull(response.getErrors());
+            assertNull(response.getPaging().getTotalPage());
+            response.getData().forEach(contact -> assertTrue(ids.add(contact.getId())));
+            cursor = response.getPaging().getNextCursor();
+            pages++;
+        }
+
+        assertEquals(25, ids.size());
+        assertEquals(3, pages);
+    }
+
+    @Test
+    void searchContactWithoutCount() throws Exception {
+        User user = userRepository.findById("test").orElseThrow();
+
+        for (int i = 0; i < 25; i++) {
+            Contact contact = new Contact();
+            contact.setId(UUID.randomUUID().toString());
+            contact.setUser(user);
+            contact.setFirstName("test");
+            contact.setLastName("test");
+            contact.setEmail("test@example.com");
+            contact.setPhone("9238423432");
+            contactRepository.save(contact);
+        }
+
+        int[] sizes = {10, 10, 5};
+        for (int page = 0; page < sizes.length; page++) {
+            int expectedSize = sizes[page];
+            boolean expectedHasNext = page < sizes.length - 1;
+
+            mockMvc.perform(
+                    get("/api/contacts")
+                            .accept(MediaType.APPLICATION_JSON)
+                            .header("X-API-TOKEN", "test")
+                            .queryParam("page", String.valueOf(page))
+                            .queryParam("count", "false")
+            ).andExpectAll(
+                    status().isOk()
+            ).andDo(result -> {
+                WebResponse<List<ContactResponse>> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+                });
+                assertNull(response.getErrors());
+                assertEquals(expectedSize, response.getData().size());
+                assertEquals(expectedHasNext, response.getPaging().getHasNext());
+                assertNull(response.getPaging().getTotalPage());
+            });
+        }
+    }
+
+    @Test
+    void searchContactTotalWithConcurrentWrites() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int thread = 0; thread < 8; thread++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 5; i++) {
+                    CreateContactRequest request = new CreateContactRequest();
+                    request.setFirstName("test");
+                    request.setLastName("test");
+                    request.setEmail("test@example.com");
+                    request.setPhone("9238423432");
+
+                    WebResponse<ContactResponse> created = objectMapper.readValue(mockMvc.perform(
+                            post("/api/contacts")
+                                    .accept(MediaType.APPLICATION_JSON)
+                                    .contentType(MediaType.APPLICATION_JSON)
+                                    .content(objectMapper.writeValueAsString(request))
+                                    .header("X-API-TOKEN", "test")
+                    ).andReturn().getResponse().getContentAsString(), new TypeReference<>() {
+                    });
+
+                    totalContacts();
+
+                    if (i % 2 == 0) {
+                        mockMvc.perform(
+                                delete("/api/contacts/" + created.getData().getId())
+                                        .accept(MediaType.APPLICATION_JSON)
+                                        .header("X-API-TOKEN", "test")
+                        ).andExpectAll(status().isOk());
+                    }
+                }
+                return null;
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(16, contactRepository.count());
+        assertEquals(16, totalContacts());
+        assertEquals(16, totalContacts());
+    }
+
+    @Test
+    void searchContactTotalCachedPerFilter() throws Exception {
+        User user = userRepository.findById("test").orElseThrow();
+
+        for (int i = 0; i < 5; i++) {
+            Contact contact = new Contact();
+            contact.setId(UUID.randomUUID().toString());
+            contact.setUser(user);
+            contact.setFirstName(i < 3 ? "test" : null);
+            contact.setPhone("9238423432");
+            contactRepository.save(contact);
+        }
+
+        assertEquals(5, totalContacts(null));
+        assertEquals(3, totalContacts(""));
+        assertEquals(3, totalContacts("TEST"));
+        assertEquals(0, totalContacts(" test"));
+        assertEquals(3, totalContacts("test"));
+    }
+
+    private int totalContacts() throws Exception {
+        return totalContacts("test");
+    }
+
+    //with a page size of one the total pages are the total contacts
+    private int totalContacts(String name) throws Exception {
+        MockHttpServletRequestBuilder request = get("/api/contacts")
+                .accept(MediaType.APPLICATION_JSON)
+                .header("X-API-TOKEN", "test")
+                .queryParam("size", "1");
+        if (name != null) {
+            request.queryParam("name", name);
+        }
+
+        WebResponse<List<ContactResponse>> response = objectMapper.readValue(mockMvc.perform(request).andReturn().getResponse().getContentAsString(), new TypeReference<>() {
+        });
+        return response.getPaging().getTotalPage();
+    }
+
+    @Test
+    void searchContactSorted() throws Exception {
+        User user = userRepository.findById("test").orElseThrow();
+
+        List<String> lastNames = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            Contact contact = new Contact();
+            contact.setId(UUID.randomUUID().toString());
+            contact.setUser(user);
+            contact.setFirstName("test");
+            //repeated and missing values must still page without gaps or repeats
+            contact.setLastName(i % 4 == 0 ? null : "last" + (i % 3));
+            contact.setCreatedAt(System.currentTimeMillis());
+            contactRepository.save(contact);
+            lastNames.add(contact.getLastName());
+        }
+
+        List<String> expected = lastNames.stream()
+                .sorted(Comparator.nullsLast(Comparator.<String>reverseOrder()))
+                .toList();
+
+        List<String> actual = new ArrayList<>();
+        String cursor = "";
+        while (cursor != null) {
+            WebResponse<List<ContactResponse>> response = objectMapper.readValue(mockMvc.perform(
+                    get("/api/contacts")
+                            .accept(MediaType.APPLICATION_JSON)
+                            .header("X-API-TOKEN", "test")
+                            .queryParam("sort", "lastName")
+                            .queryParam("direction", "desc")
+                            .queryParam("size", "5")
+                            .queryParam("cursor", cursor)
+            ).andExpectAll(
+                    status().isOk()
+            ).andReturn().getResponse().getContentAsString(), new TypeReference<>() {
+            });
+
+            response.getData().forEach(contact -> actual.add(contact.getLastName()));
+            cursor = response.getPaging().getNextCursor();
+        }
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void searchContactUnsupportedSort() throws Exception {
+        mockMvc.perform(
+                get("/api/contacts")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header("X-API-TOKEN", "test")
+                        .queryParam("sort", "phone")
+        ).andExpectAll(
+                status().isBadRequest()
+        ).andDo(result -> {
+            WebResponse<String> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+            });
+            assertNotNull(response.getErrors());
+        });
+    }
+
+    @Test
+    void searchContactPagingBadRequest() throws Exception {
+        Contact contact = new Contact();
+        contact.setId("test");
+        contact.setFirstName("Eko");
+        contact.setUser(userRepository.findById("test").orElseThrow());
+        contactRepository.save(contact);
+
+        List<Map<String, String>> params = List.of(
+                Map.of("size", "0"),
+                Map.of("size", "0", "count", "false"),
+                Map.of("size", "0", "cursor", ""),
+                Map.of("size", "-1"),
+                Map.of("size", "-1", "cursor", ""),
+                Map.of("size", "101"),
+                Map.of("size", "101", "count", "false"),
+                Map.of("page", "-1"));
+
+        for (Map<String, String> param : params) {
+            MockHttpServletRequestBuilder request = get("/api/contacts")
+                    .accept(MediaType.APPLICATION_JSON)
+                    .header("X-API-TOKEN", "test");
+            param.forEach(request::queryParam);
+
+            mockMvc.perform(request).andExpectAll(
+                    status().isBadRequest()
+            ).andDo(result -> {
+                WebResponse<String> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+                });
+                assertNotNull(response.getErrors());
+            });
+        }
+    }
+
+    @Test
+    void exportContacts() throws Exception {
+        User user = userRepository.findById("test").orElseThrow();
+
+        for (int i = 0; i < 3; i++) {
+            Contact contact = new Contact();
+            contact.setId(UUID.randomUUID().toString());
+            contact.setUser(user);
+            contact.setFirstName("test" + i);
+            contactRepository.save(contact);
+
+            for (int j = 0; j < i; j++) {
+                Address address = new Address();
+                address.setId(UUID.randomUUID().toString());
+                address.setContact(contact);
+                address.setCountry("Japan");
+                address.setCity("Osaka, \"Kita\"");
+                addressRepository.save(address);
+            }
+        }
+
+        MvcResult ndjson = mockMvc.perform(
+                get("/api/contacts/export")
+                        .header("X-API-TOKEN", "test")
+        ).andExpect(request().asyncStarted()).andReturn();
+
+        mockMvc.perform(asyncDispatch(ndjson))
+                .andExpectAll(status().isOk())
+                .andDo(result -> {
+                    String[] lines = result.getResponse().getContentAsString().split("\n");
+                    assertEquals(3, lines.length);
+
+                    int addresses = 0;
+                    for (String line : lines) {
+                        addresses += objectMapper.readTree(line).get("addresses").size();
+                    }
+                    assertEquals(3, addresses);
+                });
+
+        MvcResult csv = mockMvc.perform(
+                get("/api/contacts/export")
+                        .header("X-API-TOKEN", "test")
+                        .queryParam("format", "csv")
+        ).andExpect(request().asyncStarted()).andReturn();
+
+        mockMvc.perform(asyncDispatch(csv))
+                .andExpectAll(status().isOk())
+                .andDo(result -> {
+                    String content = result.getResponse().getContentAsString();
+                    //header, one row per address and one for the contact without addresses
+                    assertEquals(5, content.split("\n").length);
+                    assertTrue(content.contains("\"Osaka, \"\"Kita\"\"\""));
+                });
+    }
+}
@@ -0,0 +1,131 @@
+package yukinari.software.controller;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import yukinari.software.entity.Contact;
+import yukinari.software.entity.User;
+import yukinari.software.entity.UserSession;
+import yukinari.software.model.ContactResponse;
+import yukinari.software.model.WebResponse;
+import yukinari.software.repository.AddressRepository;
+import yukinari.software.repository.ContactRepository;
+import yukinari.software.repository.MaintenanceLeaseRepository;
+import yukinari.software.repository.UserRepository;
+import yukinari.software.repository.UserSessionRepository;
+import yukinari.software.service.ContactSearchIndex;
+import yukinari.software.service.ContactSearchIndexBackfill;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+        "app.contact-search.index.enabled=true",
+        "app.contact-search.index.backfill.interval=PT1H",
+        "app.contact-search.index.backfill.chunk-size=3"
+})
+@AutoConfigureMockMvc
+class ContactSearchIndexTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserSessionRepository userSessionRepository;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private AddressRepository addressRepository;
+
+    @Autowired
+    private MaintenanceLeaseRepository maintenanceLeaseRepository;
+
+    @Autowired
+    private ContactSearchIndex contactSearchIndex;
+
+    @Autowired
+    private ContactSearchIndexBackfill contactSearchIndexBackfill;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM contact_ngrams");
+        maintenanceLeaseRepository.deleteAllById(List.of("contact-search-backfill", "contact-search-backfilled"));
+        addressRepository.deleteAll();
+        contactRepository.deleteAll();
+        userSessionRepository.deleteAll();
+        userRepository.deleteAll();
+
+        User user = new User();
+        user.setUsername("test");
+        user.setPassword("test");
+        user.setName("Test");
+        userRepository.save(user);
+        userSessionRepository.save(new UserSession("test", "test", System.currentTimeMillis() + 1000000L));
+    }
+
+    @Test
+    void searchExistingContactsBeforeAndAfterBackfill() throws Exception {
+        User user = userRepository.findById("test").orElseThrow();
+
+        //saved past the service, like contacts written while the index was disabled
+        for (int i = 0; i < 10; i++) {
+            Contact contact = new Contact();
+            contact.setId(UUID.randomUUID().toString());
+            contact.setUser(user);
+            contact.setFirstName(i < 7 ? "Yukinari" : "Other");
+            contact.setLastName("Test");
+            contact.setEmail("test" + i + "@example.com");
+            contact.setPhone("9238423432");
+            contactRepository.save(contact);
+        }
+
+        assertFalse(contactSearchIndex.isReady());
+        assertEquals(7, searchByName("yukinari").size());
+
+        contactSearchIndexBackfill.run();
+
+        assertTrue(contactSearchIndex.isReady());
+        assertTrue(maintenanceLeaseRepository.existsById("contact-search-backfilled"));
+        assertEquals(10, jdbcTemplate.queryForObject(
+                "SELECT COUNT(DISTINCT contact_id) FROM contact_ngrams WHERE username = 'test'", Integer.class));
+        assertEquals(7, searchByName("yukinari").size());
+        assertEquals(3, searchByName("other").size());
+    }
+
+    private List<ContactResponse> searchByName(String name) throws Exception {
+        WebResponse<List<ContactResponse>> response = objectMapper.readValue(mockMvc.perform(
+                get("/api/contacts")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header("X-API-TOKEN", "test")
+                        .queryParam("name", name)
+        ).andExpectAll(
+                status().isOk()
+        ).andReturn().getResponse().getContentAsString(), new TypeReference<>() {
+        });
+
+        assertNull(response.getErrors());
+        return response.getData();
+    }
+}
@@ -0,0 +1,103 @@
+package yukinari.software.controller;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import yukinari.software.entity.User;
+import yukinari.software.model.LoginUserRequest;
+import yukinari.software.model.TokenResponse;
+import yukinari.software.model.UserResponse;
+import yukinari.software.model.WebResponse;
+import yukinari.software.repository.UserRepository;
+import yukinari.software.repository.UserSessionRepository;
+import yukinari.software.security.BCrypt;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest(properties = {
+        "app.token.mode=signed",
+        "app.token.signing-keys=k1:Zmlyc3Qtc2VjcmV0LWtleS0zMi1ieXRlcy1sb25nISE=",
+        "app.token.active-key-id=k1"
+})
+@AutoConfigureMockMvc
+class SignedTokenControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserSessionRepository userSessionRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @BeforeEach
+    void setUp() {
+        userSessionRepository.deleteAll();
+        userRepository.deleteAll();
+
+        User user = new User();
+        user.setName("Test");
+        user.setUsername("test");
+        user.setPassword(BCrypt.hashpw("test", BCrypt.gensalt()));
+        userRepository.save(user);
+    }
+
+    @Test
+    void loginGetAndLogout() throws Exception {
+        LoginUserRequest request = new LoginUserRequest();
+        request.setUsername("test");
+        request.setPassword("test");
+
+        WebResponse<TokenResponse> login = objectMapper.readValue(mockMvc.perform(
+                post("/api/auth/login")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request))
+        ).andExpectAll(
+                status().isOk()
+        ).andReturn().getResponse().getContentAsString(), new TypeReference<>() {
+        });
+        String token = login.getData().getToken();
+
+        assertTrue(token.startsWith("k1."));
+        assertEquals(0, userSessionRepository.count());
+
+        mockMvc.perform(get("/api/users/current")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header("X-API-TOKEN", token))
+                .andExpectAll(status().isOk())
+                .andDo(result -> {
+                    WebResponse<UserResponse> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+                    });
+                    assertEquals("test", response.getData().getUsername());
+                });
+
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("A") ? "BB" : "AA");
+        mockMvc.perform(get("/api/users/current")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header("X-API-TOKEN", tampered))
+                .andExpectAll(status().isUnauthorized());
+
+        mockMvc.perform(delete("/api/auth/logout")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header("X-API-TOKEN", token))
+                .andExpectAll(status().isOk());
+
+        mockMvc.perform(get("/api/users/current")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header("X-API-TOKEN", token))
+                .andExpectAll(status().isUnauthorized());
+    }
+}
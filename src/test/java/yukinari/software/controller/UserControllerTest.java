@@ -1,21 +1,33 @@
 package yukinari.software.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
 import yukinari.software.entity.User;
+import yukinari.software.entity.UserSession;
 import yukinari.software.model.UpdateUserRequest;
 import yukinari.software.model.UserResponse;
 import yukinari.software.model.RegisterUserRequest;
 import yukinari.software.model.WebResponse;
 import yukinari.software.repository.UserRepository;
+import yukinari.software.repository.UserSessionRepository;
 import com.fasterxml.jackson.core.type.TypeReference;
 import yukinari.software.security.BCrypt;
+import yukinari.software.security.TokenCache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -32,11 +44,21 @@ class UserControllerTest {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private UserSessionRepository userSessionRepository;
+
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private TokenCache tokenCache;
+
     @BeforeEach
     void setUp() {
+        userSessionRepository.deleteAll();
         userRepository.deleteAll();
     }
 
@@ -97,6 +119,16 @@ class UserControllerTest {
         request.setPassword("rahasia");
         request.setName("Test");
 
+        //the filter has not seen a user saved around it, the primary key turns it away
+        registerDuplicate(request);
+        long hashes = meterRegistry.timer("password.hasher.duration", "operation", "hash").count();
+
+        //now the filter has, and the lookup turns it away before any BCrypt work
+        registerDuplicate(request);
+        assertEquals(hashes, meterRegistry.timer("password.hasher.duration", "operation", "hash").count());
+    }
+
+    private void registerDuplicate(RegisterUserRequest request) throws Exception {
         mockMvc.perform(
                 post("/api/users")
                         .accept(MediaType.APPLICATION_JSON)
@@ -108,10 +140,45 @@ class UserControllerTest {
             WebResponse<String> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
             });
 
-            assertNotNull(response.getErrors());
+            assertEquals("Username already registered", response.getErrors());
         });
     }
 
+    @Test
+    void testRegisterConcurrentDuplicate() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> statuses = new ArrayList<>();
+
+        for (int i = 0; i < 24; i++) {
+            RegisterUserRequest request = new RegisterUserRequest();
+            request.setUsername("test" + (i % 3));
+            request.setPassword("rahasia");
+            request.setName("Test");
+
+            statuses.add(executor.submit(() -> mockMvc.perform(
+                    post("/api/users")
+                            .accept(MediaType.APPLICATION_JSON)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(request))
+            ).andReturn().getResponse().getStatus()));
+        }
+
+        int ok = 0;
+        int badRequest = 0;
+        for (Future<Integer> status : statuses) {
+            switch (status.get()) {
+                case 200 -> ok++;
+                case 400 -> badRequest++;
+                default -> fail("Unexpected status " + status.get());
+            }
+        }
+        executor.shutdown();
+
+        assertEquals(3, ok);
+        assertEquals(21, badRequest);
+        assertEquals(3, userRepository.count());
+    }
+
     @Test
     void testGetUserUnauthorized() throws Exception {
         mockMvc.perform(get("/api/users/current")
@@ -148,9 +215,8 @@ class UserControllerTest {
         user.setName("Test");
         user.setUsername("test");
         user.setPassword(BCrypt.hashpw("test", BCrypt.gensalt()));
-        user.setToken("test");
-        user.setTokenExpiredAt(System.currentTimeMillis() * 100000000L);
         userRepository.save(user);
+        userSessionRepository.save(new UserSession("test", "test", System.currentTimeMillis() + 1000000L));
 
         mockMvc.perform(get("/api/users/current")
                         .accept(MediaType.APPLICATION_JSON)
@@ -165,6 +231,54 @@ class UserControllerTest {
 
     }
 
+    @Test
+    void testGetUserLatencyWithTokenCache() throws Exception {
+        User user = new User();
+        user.setName("Test");
+        user.setUsername("test");
+        user.setPassword(BCrypt.hashpw("test", BCrypt.gensalt()));
+        userRepository.save(user);
+        userSessionRepository.save(new UserSession("test", "test", System.currentTimeMillis() + 1000000L));
+
+        boolean enabled = tokenCache.isEnabled();
+        try {
+            ReflectionTestUtils.setField(tokenCache, "enabled", false);
+            currentUserLatencies(500);
+            long[] withoutCache = currentUserLatencies(2000);
+
+            ReflectionTestUtils.setField(tokenCache, "enabled", true);
+            currentUserLatencies(500);
+            double hits = meterRegistry.counter("token.cache.requests", "result", "hit").count();
+            long[] withCache = currentUserLatencies(2000);
+
+            assertEquals(2000, meterRegistry.counter("token.cache.requests", "result", "hit").count() - hits);
+
+            long p99Without = withoutCache[withoutCache.length * 99 / 100];
+            long p99With = withCache[withCache.length * 99 / 100];
+            System.out.printf("GET /api/users/current p99: %d us without token cache, %d us with it%n",
+                    p99Without / 1000, p99With / 1000);
+            assertTrue(p99With <= p99Without, "p99 with the token cache is not lower");
+        } finally {
+            tokenCache.invalidate("test");
+            ReflectionTestUtils.setField(tokenCache, "enabled", enabled);
+        }
+    }
+
+    //sorted nanoseconds per request
+    private long[] currentUserLatencies(int requests) throws Exception {
+        long[] latencies = new long[requests];
+        for (int i = 0; i < requests; i++) {
+            long start = System.nanoTime();
+            mockMvc.perform(get("/api/users/current")
+                            .accept(MediaType.APPLICATION_JSON)
+                            .header("X-API-TOKEN", "test"))
+                    .andExpect(status().isOk());
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
     @Test
     void testUpdateUnAuthorized() throws Exception {
 
@@ -191,9 +305,8 @@ class UserControllerTest {
         user.setName("Test");
         user.setUsername("test");
         user.setPassword(BCrypt.hashpw("test", BCrypt.gensalt()));
-        user.setToken("test");
-        user.setTokenExpiredAt(System.currentTimeMillis() * 100000000L);
         userRepository.save(user);
+        userSessionRepository.save(new UserSession("test", "test", System.currentTimeMillis() + 1000000L));
 
         UpdateUserRequest update = new UpdateUserRequest();
         update.setName("yuki");
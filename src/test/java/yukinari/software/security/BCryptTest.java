@@ -0,0 +1,120 @@
+package yukinari.software.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BCryptTest {
+
+    //password, salt, hash: the jBCrypt test vectors, also produced by OpenBSD crypt
+    private static final String[][] VECTORS = {
+            {"", "$2a$06$DCq7YPn5Rq63x1Lad4cll.", "$2a$06$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s."},
+            {"", "$2a$08$HqWuK6/Ng6sg9gQzbLrgb.", "$2a$08$HqWuK6/Ng6sg9gQzbLrgb.Tl.ZHfXLhvt/SgVyWhQqgqcZ7ZuUtye"},
+            {"", "$2a$10$k1wbIrmNyFAPwPVPSVa/ze", "$2a$10$k1wbIrmNyFAPwPVPSVa/zecw2BCEnBwVS2GbrmgzxFUOqW9dk4TCW"},
+            {"", "$2a$12$k42ZFHFWqBp3vWli.nIn8u", "$2a$12$k42ZFHFWqBp3vWli.nIn8uYyIkbvYRvodzbfbK18SSsY.CsIQPlxO"},
+            {"a", "$2a$06$m0CrhHm10qJ3lXRY.5zDGO", "$2a$06$m0CrhHm10qJ3lXRY.5zDGO3rS2KdeeWLuGmsfGlMfOxih58VYVfxe"},
+            {"a", "$2a$08$cfcvVd2aQ8CMvoMpP2EBfe", "$2a$08$cfcvVd2aQ8CMvoMpP2EBfeodLEkkFJ9umNEfPD18.hUF62qqlC/V."},
+            {"a", "$2a$10$k87L/MF28Q673VKh8/cPi.", "$2a$10$k87L/MF28Q673VKh8/cPi.SUl7MU/rWuSiIDDFayrKk/1tBsSQu4u"},
+            {"a", "$2a$12$8NJH3LsPrANStV6XtBakCe", "$2a$12$8NJH3LsPrANStV6XtBakCez0cKHXVxmvxIlcz785vxAIZrihHZpeS"},
+            {"abc", "$2a$06$If6bvum7DFjUnE9p2uDeDu", "$2a$06$If6bvum7DFjUnE9p2uDeDu0YHzrHM6tf.iqN8.yx.jNN1ILEf7h0i"},
+            {"abc", "$2a$08$Ro0CUfOqk6cXEKf3dyaM7O", "$2a$08$Ro0CUfOqk6cXEKf3dyaM7OhSCvnwM9s4wIX9JeLapehKK5YdLxKcm"},
+            {"abc", "$2a$10$WvvTPHKwdBJ3uk0Z37EMR.", "$2a$10$WvvTPHKwdBJ3uk0Z37EMR.hLA2W6N9AEBhEgrAOljy2Ae5MtaSIUi"},
+            {"abc", "$2a$12$EXRkfkdmXn2gzds2SSitu.", "$2a$12$EXRkfkdmXn2gzds2SSitu.MW9.gAVqa9eLS1//RYtYCmB1eLHg.9q"},
+            {"abcdefghijklmnopqrstuvwxyz", "$2a$06$.rCVZVOThsIa97pEDOxvGu", "$2a$06$.rCVZVOThsIa97pEDOxvGuRRgzG64bvtJ0938xuqzv18d3ZpQhstC"},
+            {"abcdefghijklmnopqrstuvwxyz", "$2a$08$aTsUwsyowQuzRrDqFflhge", "$2a$08$aTsUwsyowQuzRrDqFflhgekJ8d9/7Z3GV3UcgvzQW3J5zMyrTvlz."},
+            {"abcdefghijklmnopqrstuvwxyz", "$2a$10$fVH8e28OQRj9tqiDXs1e1u", "$2a$10$fVH8e28OQRj9tqiDXs1e1uxpsjN0c7II7YPKXua2NAKYvM6iQk7dq"},
+            {"abcdefghijklmnopqrstuvwxyz", "$2a$12$D4G5f18o7aMMfwasBL7Gpu", "$2a$12$D4G5f18o7aMMfwasBL7GpuQWuP3pkrZrOAnqP.bmezbMng.QwJ/pG"},
+            {"~!@#$%^&*()      ~!@#$%^&*()PNBFRD", "$2a$06$fPIsBO8qRqkjj273rfaOI.", "$2a$06$fPIsBO8qRqkjj273rfaOI.HtSV9jLDpTbZn782DC6/t7qT67P6FfO"},
+            {"~!@#$%^&*()      ~!@#$%^&*()PNBFRD", "$2a$08$Eq2r4G/76Wv39MzSX262hu", "$2a$08$Eq2r4G/76Wv39MzSX262huzPz612MZiYHVUJe/OcOql2jo4.9UxTW"},
+            {"~!@#$%^&*()      ~!@#$%^&*()PNBFRD", "$2a$10$LgfYWkbzEvQ4JakH7rOvHe", "$2a$10$LgfYWkbzEvQ4JakH7rOvHe0y8pHKF9OaFgwUZ2q7W2FFZmZzJYlfS"},
+            {"~!@#$%^&*()      ~!@#$%^&*()PNBFRD", "$2a$12$WApznUOJfkEGSmYRfnkrPO", "$2a$12$WApznUOJfkEGSmYRfnkrPOr466oFDCaj4b6HY3EXGvfxm43seyhgC"},
+    };
+
+    @Test
+    void hashMatchesKnownVectors() {
+        for (String[] vector : VECTORS) {
+            assertEquals(vector[2], BCrypt.hashpw(vector[0], vector[1]), vector[0]);
+            assertEquals(vector[2], BCrypt.hashpw(vector[0], vector[2]), vector[0]);
+        }
+    }
+
+    @Test
+    void checkKnownVectors() {
+        for (String[] vector : VECTORS) {
+            assertTrue(BCrypt.checkpw(vector[0], vector[2]), vector[0]);
+            assertFalse(BCrypt.checkpw(vector[0] + "x", vector[2]), vector[0]);
+        }
+    }
+
+    @Test
+    void sameHashAsLegacyImplementation() {
+        Random random = new Random(42);
+        SecureRandom saltRandom = new SecureRandom();
+        String[] prefixes = {"$2a", "$2b", "$2y", "$2x"};
+
+        for (int i = 0; i < 200; i++) {
+            //random bytes, including non-ASCII, empty and longer than the 72 bytes bcrypt reads
+            byte[] password = new byte[random.nextInt(80)];
+            random.nextBytes(password);
+            //gensalt never makes $2x$, the prefix of the old sign extension bug, but stored hashes may have it
+            String salt = prefixes[i % prefixes.length] + BCrypt.gensalt("$2a", 4, saltRandom).substring(3);
+
+            String hashed = LegacyBCrypt.hashpw(password, salt);
+            assertEquals(hashed, BCrypt.hashpw(password, salt));
+            assertTrue(BCrypt.checkpw(password, hashed));
+        }
+
+        //the same thread reuses its working state, a long password must not leak into a short one
+        String salt = BCrypt.gensalt(4);
+        String text = "a".repeat(100);
+        for (int length = 0; length <= text.length(); length++) {
+            byte[] password = text.substring(0, length).getBytes(StandardCharsets.UTF_8);
+            assertEquals(LegacyBCrypt.hashpw(password, salt), BCrypt.hashpw(password, salt));
+        }
+    }
+
+    //stands in for a JMH run: per call allocation and time of checkpw against the old code
+    @Test
+    void checkAllocatesLessThanLegacyImplementation() {
+        String hashed = BCrypt.hashpw("rahasia", BCrypt.gensalt(4));
+
+        double[] legacy = measure(() -> LegacyBCrypt.checkpw("rahasia", hashed));
+        double[] reworked = measure(() -> BCrypt.checkpw("rahasia", hashed));
+
+        System.out.printf("checkpw at cost 4: legacy %.0f B %.1f us, reworked %.0f B %.1f us per call%n",
+                legacy[0], legacy[1] / 1000, reworked[0], reworked[1] / 1000);
+        assertTrue(reworked[0] * 10 < legacy[0], "reworked checkpw allocates " + reworked[0] + " B per call");
+    }
+
+    //bytes allocated and nanoseconds per call on this thread, after a warm up
+    private double[] measure(BooleanSupplier check) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int i = 0; i < 500; i++) {
+            assertTrue(check.getAsBoolean());
+        }
+
+        int calls = 1000;
+        long bytes = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            assertTrue(check.getAsBoolean());
+        }
+        long nanos = System.nanoTime() - start;
+        bytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+
+        return new double[]{(double) bytes / calls, (double) nanos / calls};
+    }
+
+    @Test
+    void rejectsInvalidSalt() {
+        assertThrows(IllegalArgumentException.class, () -> BCrypt.hashpw("test", "$2a$06$short"));
+        assertThrows(IllegalArgumentException.class, () -> BCrypt.hashpw("test", "$3a$06$DCq7YPn5Rq63x1Lad4cll."));
+        assertThrows(IllegalArgumentException.class, () -> BCrypt.hashpw("test", "$2c$06$DCq7YPn5Rq63x1Lad4cll."));
+    }
+}
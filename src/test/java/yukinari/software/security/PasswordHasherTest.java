@@ -0,0 +1,109 @@
+package yukinari.software.security;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PasswordHasherTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private PasswordHasher passwordHasher;
+
+    @AfterEach
+    void tearDown() {
+        if (passwordHasher != null) {
+            passwordHasher.stop();
+        }
+    }
+
+    @Test
+    void calibratesToMinimumWhenTargetIsTooLow() {
+        passwordHasher = passwordHasher(Duration.ofNanos(1), 4, 8);
+
+        assertEquals(4, passwordHasher.getLogRounds());
+        assertEquals(4, meterRegistry.get("password.hasher.log.rounds").gauge().value());
+    }
+
+    @Test
+    void calibratesToMaximumWhenTargetIsHigh() {
+        passwordHasher = passwordHasher(Duration.ofHours(1), 4, 6);
+
+        assertEquals(6, passwordHasher.getLogRounds());
+    }
+
+    @Test
+    void calibratesToTargetHashTime() {
+        String salt = BCrypt.gensalt(4);
+        long cost4 = Long.MAX_VALUE;
+        for (int i = 0; i < 20; i++) {
+            long start = System.nanoTime();
+            BCrypt.hashpw("calibration", salt);
+            cost4 = Math.min(cost4, System.nanoTime() - start);
+        }
+
+        //four times the cost 4 hash fits two more rounds, give or take one for timing noise
+        passwordHasher = passwordHasher(Duration.ofNanos(cost4 * 4), 4, 12);
+
+        int rounds = passwordHasher.getLogRounds();
+        assertTrue(rounds >= 5 && rounds <= 7, "calibrated to " + rounds);
+    }
+
+    @Test
+    void hashUsesCalibratedCost() {
+        passwordHasher = passwordHasher(Duration.ofNanos(1), 5, 8);
+
+        String hashed = passwordHasher.hash("rahasia");
+
+        assertTrue(hashed.startsWith("$2a$05$"));
+        assertTrue(passwordHasher.check("rahasia", hashed));
+        assertFalse(passwordHasher.check("salah", hashed));
+        assertFalse(passwordHasher.needsRehash(hashed));
+    }
+
+    @Test
+    void needsRehashWhenCostDiffers() {
+        passwordHasher = passwordHasher(Duration.ofNanos(1), 5, 8);
+
+        assertTrue(passwordHasher.needsRehash(BCrypt.hashpw("rahasia", BCrypt.gensalt(4))));
+        assertTrue(passwordHasher.needsRehash("$2$10$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s."));
+        assertFalse(passwordHasher.needsRehash("$2b$05$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s."));
+        assertFalse(passwordHasher.needsRehash("$2a$xx$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s."));
+    }
+
+    @Test
+    void rehashIsTimedApartFromHash() throws Exception {
+        passwordHasher = passwordHasher(Duration.ofNanos(1), 5, 8);
+        CompletableFuture<String> rehashed = new CompletableFuture<>();
+
+        passwordHasher.rehash("rahasia", rehashed::complete);
+
+        String hashed = rehashed.get(10, TimeUnit.SECONDS);
+        assertTrue(hashed.startsWith("$2a$05$"));
+        assertTrue(BCrypt.checkpw("rahasia", hashed));
+        assertEquals(1, meterRegistry.timer("password.hasher.duration", "operation", "rehash").count());
+        assertEquals(0, meterRegistry.timer("password.hasher.duration", "operation", "hash").count());
+    }
+
+    private PasswordHasher passwordHasher(Duration targetHashTime, int minLogRounds, int maxLogRounds) {
+        PasswordHasher passwordHasher = new PasswordHasher();
+        ReflectionTestUtils.setField(passwordHasher, "threads", 1);
+        ReflectionTestUtils.setField(passwordHasher, "queueCapacity", 4);
+        ReflectionTestUtils.setField(passwordHasher, "timeout", Duration.ofSeconds(10));
+        ReflectionTestUtils.setField(passwordHasher, "retryAfter", Duration.ofSeconds(1));
+        ReflectionTestUtils.setField(passwordHasher, "targetHashTime", targetHashTime);
+        ReflectionTestUtils.setField(passwordHasher, "minLogRounds", minLogRounds);
+        ReflectionTestUtils.setField(passwordHasher, "maxLogRounds", maxLogRounds);
+        ReflectionTestUtils.setField(passwordHasher, "meterRegistry", meterRegistry);
+        passwordHasher.start();
+        return passwordHasher;
+    }
+}
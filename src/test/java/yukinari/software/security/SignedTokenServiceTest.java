@@ -0,0 +1,120 @@
+package yukinari.software.security;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SignedTokenServiceTest {
+
+    private static final String KEY_1 = "k1:" + Base64.getEncoder().encodeToString("first-secret-key-32-bytes-long!!".getBytes(StandardCharsets.UTF_8));
+
+    private static final String KEY_2 = "k2:" + Base64.getEncoder().encodeToString("second-secret-key-32-bytes-long!".getBytes(StandardCharsets.UTF_8));
+
+    @Test
+    void verifiesIssuedToken() {
+        SignedTokenService service = service(KEY_1, "k1");
+        long expiredAt = System.currentTimeMillis() + 60_000;
+
+        String token = service.issue("test", expiredAt);
+
+        assertTrue(service.isSigned(token));
+        assertTrue(token.startsWith("k1."));
+        SignedTokenService.Claims claims = service.verify(token).orElseThrow();
+        assertEquals("test", claims.username());
+        assertEquals(expiredAt, claims.expiredAt());
+    }
+
+    @Test
+    void opaqueTokenIsNotSigned() {
+        SignedTokenService service = service(KEY_1, "k1");
+
+        assertFalse(service.isSigned("5f0c4a3e-8a1b-4c2d-9e3f-123456789abc"));
+        assertFalse(service.isSigned(null));
+        assertTrue(service.verify("5f0c4a3e-8a1b-4c2d-9e3f-123456789abc").isEmpty());
+    }
+
+    @Test
+    void rejectsTamperedToken() {
+        SignedTokenService service = service(KEY_1, "k1");
+        String token = service.issue("test", System.currentTimeMillis() + 60_000);
+        String[] parts = token.split("\\.");
+
+        //another user in the payload with the original signature
+        String payload = Base64.getUrlEncoder().withoutPadding().encodeToString(
+                ((System.currentTimeMillis() + 60_000) + ":admin").getBytes(StandardCharsets.UTF_8));
+        assertTrue(service.verify(parts[0] + "." + payload + "." + parts[2]).isEmpty());
+
+        //a changed signature
+        char last = parts[2].charAt(0);
+        String signature = (last == 'A' ? 'B' : 'A') + parts[2].substring(1);
+        assertTrue(service.verify(parts[0] + "." + parts[1] + "." + signature).isEmpty());
+
+        //signed by a key that is not configured here
+        String foreign = service(KEY_2, "k2").issue("test", System.currentTimeMillis() + 60_000);
+        assertTrue(service.verify(foreign).isEmpty());
+        assertTrue(service.verify("k1." + foreign.substring(3)).isEmpty());
+
+        assertTrue(service.verify(parts[0] + "." + parts[1]).isEmpty());
+        assertTrue(service.verify(parts[0] + ".!!!." + parts[2]).isEmpty());
+    }
+
+    @Test
+    void rejectsExpiredToken() {
+        SignedTokenService service = service(KEY_1, "k1");
+
+        String token = service.issue("test", System.currentTimeMillis() - 1);
+
+        assertTrue(service.verify(token).isEmpty());
+    }
+
+    @Test
+    void rejectsRevokedToken() {
+        SignedTokenService service = service(KEY_1, "k1");
+        long expiredAt = System.currentTimeMillis() + 60_000;
+        String revoked = service.issue("test", expiredAt);
+        String other = service.issue("test", expiredAt + 1);
+
+        service.revoke(revoked, expiredAt);
+
+        assertTrue(service.verify(revoked).isEmpty());
+        assertTrue(service.verify(other).isPresent());
+    }
+
+    @Test
+    void rotatesKeys() {
+        long expiredAt = System.currentTimeMillis() + 60_000;
+        String oldToken = service(KEY_1, "k1").issue("test", expiredAt);
+
+        //the new key is added and made active, tokens of the old key stay valid
+        SignedTokenService rotated = service(KEY_1 + "," + KEY_2, "k2");
+        String newToken = rotated.issue("test", expiredAt);
+        assertTrue(newToken.startsWith("k2."));
+        assertEquals("test", rotated.verify(oldToken).orElseThrow().username());
+        assertEquals("test", rotated.verify(newToken).orElseThrow().username());
+
+        //once the old key is removed its tokens are rejected
+        SignedTokenService retired = service(KEY_2, "k2");
+        assertTrue(retired.verify(oldToken).isEmpty());
+        assertTrue(retired.verify(newToken).isPresent());
+    }
+
+    @Test
+    void rejectsInvalidKeyConfiguration() {
+        assertThrows(IllegalStateException.class, () -> service(KEY_1, "k2"));
+        assertThrows(IllegalStateException.class, () -> service("k1", "k1"));
+        assertThrows(IllegalStateException.class, () -> service("k.1:c2VjcmV0", "k.1"));
+    }
+
+    private SignedTokenService service(String signingKeys, String activeKeyId) {
+        SignedTokenService service = new SignedTokenService();
+        ReflectionTestUtils.setField(service, "mode", "signed");
+        ReflectionTestUtils.setField(service, "signingKeys", signingKeys);
+        ReflectionTestUtils.setField(service, "activeKeyId", activeKeyId);
+        service.loadKeys();
+        return service;
+    }
+}
@@ -0,0 +1,122 @@
+package yukinari.software.security;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import yukinari.software.entity.User;
+import yukinari.software.entity.UserSession;
+import yukinari.software.repository.UserRepository;
+import yukinari.software.repository.UserSessionRepository;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+        "app.token.ttl=P1D",
+        "app.token.sliding-expiry.enabled=true",
+        "app.token.sliding-expiry.flush-interval=PT1H"
+})
+@AutoConfigureMockMvc
+class SlidingExpiryTrackerTest {
+
+    private static final long DAY = Duration.ofDays(1).toMillis();
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private SlidingExpiryTracker slidingExpiryTracker;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserSessionRepository userSessionRepository;
+
+    @BeforeEach
+    void setUp() {
+        slidingExpiryTracker.flush();
+        userSessionRepository.deleteAll();
+        userRepository.deleteAll();
+
+        User user = new User();
+        user.setUsername("test");
+        user.setPassword("test");
+        user.setName("Test");
+        userRepository.save(user);
+    }
+
+    @Test
+    void extendsTokenNearExpiryOnFlush() throws Exception {
+        long expiredAt = System.currentTimeMillis() + 60_000;
+        userSessionRepository.save(new UserSession("test", "test", expiredAt));
+
+        long before = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            getCurrentUser("test");
+        }
+
+        //the extensions are kept in memory as one pending expiry until the flush
+        long pending = slidingExpiryTracker.pendingExpiry("test");
+        assertTrue(pending >= before + DAY);
+        assertEquals(expiredAt, userSessionRepository.findById("test").orElseThrow().getExpiredAt());
+
+        slidingExpiryTracker.flush();
+
+        assertEquals(pending, userSessionRepository.findById("test").orElseThrow().getExpiredAt());
+        assertEquals(0, slidingExpiryTracker.pendingExpiry("test"));
+    }
+
+    @Test
+    void pendingExtensionKeepsTokenValid() throws Exception {
+        userSessionRepository.save(new UserSession("test", "test", System.currentTimeMillis() - 1000));
+        mockMvc.perform(get("/api/users/current")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header("X-API-TOKEN", "test"))
+                .andExpect(status().isUnauthorized());
+
+        //extended on another request before the stored expiry passed, not flushed yet
+        slidingExpiryTracker.touch("test");
+
+        getCurrentUser("test");
+        slidingExpiryTracker.flush();
+        assertTrue(userSessionRepository.findById("test").orElseThrow().getExpiredAt() > System.currentTimeMillis() + DAY / 2);
+    }
+
+    @Test
+    void flushNeverShortensExpiry() {
+        long later = System.currentTimeMillis() + 2 * DAY;
+        userSessionRepository.save(new UserSession("test", "test", later));
+
+        slidingExpiryTracker.touch("test");
+        slidingExpiryTracker.flush();
+
+        assertEquals(later, userSessionRepository.findById("test").orElseThrow().getExpiredAt());
+    }
+
+    @Test
+    void forgottenTokenIsNotFlushed() throws Exception {
+        long expiredAt = System.currentTimeMillis() + 60_000;
+        userSessionRepository.save(new UserSession("test", "test", expiredAt));
+
+        getCurrentUser("test");
+        slidingExpiryTracker.forget("test");
+        slidingExpiryTracker.flush();
+
+        assertEquals(expiredAt, userSessionRepository.findById("test").orElseThrow().getExpiredAt());
+    }
+
+    private void getCurrentUser(String token) throws Exception {
+        mockMvc.perform(get("/api/users/current")
+                        .accept(MediaType.APPLICATION_JSON)
+                        .header("X-API-TOKEN", token))
+                .andExpect(status().isOk());
+    }
+}
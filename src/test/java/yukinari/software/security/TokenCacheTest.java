@@ -0,0 +1,211 @@
+package yukinari.software.security;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import yukinari.software.entity.User;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenCacheTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private TokenCache tokenCache;
+
+    @BeforeEach
+    void setUp() {
+        tokenCache = tokenCache(10, Duration.ofMinutes(1));
+    }
+
+    @Test
+    void getReturnsCopyOfCachedUser() {
+        User user = user("test", "token");
+        tokenCache.put("token", user, tokenCache.generation());
+
+        User cached = tokenCache.get("token");
+        assertNotNull(cached);
+        assertNotSame(user, cached);
+        assertEquals("test", cached.getUsername());
+        assertNotSame(cached, tokenCache.get("token"));
+
+        assertNull(tokenCache.get("other"));
+        assertEquals(2, meterRegistry.counter("token.cache.requests", "result", "hit").count());
+        assertEquals(1, meterRegistry.counter("token.cache.requests", "result", "miss").count());
+    }
+
+    @Test
+    void disabledCachesNothing() {
+        ReflectionTestUtils.setField(tokenCache, "enabled", false);
+
+        tokenCache.put("token", user("test", "token"), tokenCache.generation());
+
+        assertNull(tokenCache.get("token"));
+    }
+
+    @Test
+    void entryExpiresAfterTtl() throws Exception {
+        tokenCache = tokenCache(10, Duration.ofMillis(50));
+        tokenCache.put("token", user("test", "token"), tokenCache.generation());
+        assertNotNull(tokenCache.get("token"));
+
+        Thread.sleep(100);
+
+        assertNull(tokenCache.get("token"));
+        assertEquals(1, meterRegistry.counter("token.cache.evictions", "cause", "expired").count());
+    }
+
+    @Test
+    void entryExpiresWithToken() throws Exception {
+        User user = user("test", "token");
+        user.setTokenExpiredAt(System.currentTimeMillis() + 50);
+        tokenCache.put("token", user, tokenCache.generation());
+        assertNotNull(tokenCache.get("token"));
+
+        Thread.sleep(100);
+
+        assertNull(tokenCache.get("token"));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            tokenCache.put("token-" + i, user("user-" + i, "token-" + i), tokenCache.generation());
+        }
+
+        //access times are kept to the second
+        Thread.sleep(1100);
+        assertNotNull(tokenCache.get("token-0"));
+
+        tokenCache.put("token-10", user("user-10", "token-10"), tokenCache.generation());
+
+        assertNotNull(tokenCache.get("token-0"));
+        assertNotNull(tokenCache.get("token-10"));
+        assertEquals(2, meterRegistry.counter("token.cache.evictions", "cause", "size").count());
+
+        int cached = 0;
+        for (int i = 0; i <= 10; i++) {
+            if (tokenCache.get("token-" + i) != null) {
+                cached++;
+            }
+        }
+        assertEquals(9, cached);
+    }
+
+    @Test
+    void invalidateDropsToken() {
+        tokenCache.put("token-a", user("test", "token-a"), tokenCache.generation());
+        tokenCache.put("token-b", user("test", "token-b"), tokenCache.generation());
+
+        tokenCache.invalidate("token-a");
+
+        assertNull(tokenCache.get("token-a"));
+        assertNotNull(tokenCache.get("token-b"));
+    }
+
+    @Test
+    void invalidateUserDropsEveryTokenOfUser() {
+        tokenCache.put("token-a", user("test", "token-a"), tokenCache.generation());
+        tokenCache.put("token-b", user("test", "token-b"), tokenCache.generation());
+        tokenCache.put("token-c", user("other", "token-c"), tokenCache.generation());
+
+        tokenCache.invalidateUser("test");
+
+        assertNull(tokenCache.get("token-a"));
+        assertNull(tokenCache.get("token-b"));
+        assertNotNull(tokenCache.get("token-c"));
+    }
+
+    @Test
+    void loadStartedBeforeInvalidationIsNotCached() {
+        long generation = tokenCache.generation();
+        tokenCache.invalidate("token-a");
+        tokenCache.invalidateUser("other");
+        tokenCache.put("token-a", user("test", "token-a"), generation);
+        tokenCache.put("token-b", user("other", "token-b"), generation);
+
+        assertNull(tokenCache.get("token-a"));
+        assertNull(tokenCache.get("token-b"));
+
+        //invalidations of other tokens and users do not drop the load
+        generation = tokenCache.generation();
+        tokenCache.invalidate("token-x");
+        tokenCache.invalidateUser("someone");
+        tokenCache.put("token-a", user("test", "token-a"), generation);
+
+        assertNotNull(tokenCache.get("token-a"));
+    }
+
+    @Test
+    void forgottenInvalidationsDropOlderLoads() {
+        long generation = tokenCache.generation();
+        for (int i = 0; i <= 10; i++) {
+            tokenCache.invalidate("token-" + i);
+        }
+
+        tokenCache.put("token-a", user("test", "token-a"), generation);
+        assertNull(tokenCache.get("token-a"));
+
+        tokenCache.put("token-a", user("test", "token-a"), tokenCache.generation());
+        assertNotNull(tokenCache.get("token-a"));
+    }
+
+    @Test
+    void concurrentInvalidationNeverLeavesTokenCached() throws Exception {
+        tokenCache = tokenCache(1000, Duration.ofMinutes(1));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        for (int round = 0; round < 2000; round++) {
+            String token = "token-" + round;
+            CountDownLatch loaded = new CountDownLatch(1);
+            CyclicBarrier start = new CyclicBarrier(2);
+
+            Future<?> load = executor.submit(() -> {
+                long generation = tokenCache.generation();
+                loaded.countDown();
+                start.await();
+                tokenCache.put(token, user("test", token), generation);
+                return null;
+            });
+            Future<?> logout = executor.submit(() -> {
+                loaded.await();
+                start.await();
+                tokenCache.invalidate(token);
+                return null;
+            });
+            load.get();
+            logout.get();
+
+            assertNull(tokenCache.get(token));
+        }
+
+        executor.shutdown();
+    }
+
+    private TokenCache tokenCache(int maxSize, Duration ttl) {
+        TokenCache tokenCache = new TokenCache();
+        ReflectionTestUtils.setField(tokenCache, "enabled", true);
+        ReflectionTestUtils.setField(tokenCache, "maxSize", maxSize);
+        ReflectionTestUtils.setField(tokenCache, "ttl", ttl);
+        ReflectionTestUtils.setField(tokenCache, "meterRegistry", meterRegistry);
+        tokenCache.registerMetrics();
+        return tokenCache;
+    }
+
+    private User user(String username, String token) {
+        User user = new User();
+        user.setUsername(username);
+        user.setToken(token);
+        user.setTokenExpiredAt(System.currentTimeMillis() + 1000000L);
+        return user;
+    }
+}
@@ -0,0 +1,118 @@
+package yukinari.software.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContactCountCacheTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private ContactCountCache contactCountCache;
+
+    @BeforeEach
+    void setUp() {
+        contactCountCache = contactCountCache(10, 2, Duration.ofMinutes(1));
+    }
+
+    @Test
+    void cachesCountPerUserAndFilter() {
+        contactCountCache.put("eko", "a", 3, contactCountCache.generation("eko"));
+        contactCountCache.put("eko", "b", 5, contactCountCache.generation("eko"));
+
+        assertEquals(3, contactCountCache.get("eko", "a"));
+        assertEquals(5, contactCountCache.get("eko", "b"));
+        assertNull(contactCountCache.get("budi", "a"));
+        assertEquals(2, meterRegistry.counter("contact.count.cache.requests", "result", "hit").count());
+        assertEquals(1, meterRegistry.counter("contact.count.cache.requests", "result", "miss").count());
+    }
+
+    @Test
+    void oldestFilterIsDroppedFirst() {
+        contactCountCache.put("eko", "a", 1, contactCountCache.generation("eko"));
+        contactCountCache.put("eko", "b", 2, contactCountCache.generation("eko"));
+        contactCountCache.put("eko", "c", 3, contactCountCache.generation("eko"));
+
+        assertNull(contactCountCache.get("eko", "a"));
+        assertEquals(2, contactCountCache.get("eko", "b"));
+        assertEquals(3, contactCountCache.get("eko", "c"));
+    }
+
+    @Test
+    void entryExpiresAfterTtl() throws Exception {
+        contactCountCache = contactCountCache(10, 2, Duration.ofMillis(50));
+        contactCountCache.put("eko", "a", 3, contactCountCache.generation("eko"));
+
+        Thread.sleep(100);
+
+        assertNull(contactCountCache.get("eko", "a"));
+    }
+
+    @Test
+    void invalidateDropsOnlyThatUser() {
+        contactCountCache.put("eko", "a", 3, contactCountCache.generation("eko"));
+        contactCountCache.put("budi", "a", 4, contactCountCache.generation("budi"));
+
+        contactCountCache.invalidate("eko");
+
+        assertNull(contactCountCache.get("eko", "a"));
+        assertEquals(4, contactCountCache.get("budi", "a"));
+    }
+
+    @Test
+    void countTakenBeforeInvalidationIsNotCached() {
+        long eko = contactCountCache.generation("eko");
+        long budi = contactCountCache.generation("budi");
+
+        contactCountCache.invalidate("eko");
+        contactCountCache.put("eko", "a", 3, eko);
+        assertNull(contactCountCache.get("eko", "a"));
+
+        //another user's write does not throw away this count
+        contactCountCache.put("budi", "a", 4, budi);
+        assertEquals(4, contactCountCache.get("budi", "a"));
+    }
+
+    @Test
+    void invalidationOfDroppedUserIsNotForgotten() {
+        contactCountCache = contactCountCache(2, 2, Duration.ofMinutes(1));
+        long eko = contactCountCache.generation("eko");
+
+        //eko is invalidated and then pushed out of the cache by two other users
+        contactCountCache.invalidate("eko");
+        contactCountCache.put("budi", "a", 1, contactCountCache.generation("budi"));
+        contactCountCache.put("joko", "a", 1, contactCountCache.generation("joko"));
+
+        contactCountCache.put("eko", "a", 3, eko);
+        assertNull(contactCountCache.get("eko", "a"));
+
+        contactCountCache.put("eko", "a", 3, contactCountCache.generation("eko"));
+        assertEquals(3, contactCountCache.get("eko", "a"));
+    }
+
+    @Test
+    void disabledCachesNothing() {
+        ReflectionTestUtils.setField(contactCountCache, "enabled", false);
+
+        contactCountCache.put("eko", "a", 3, contactCountCache.generation("eko"));
+
+        assertNull(contactCountCache.get("eko", "a"));
+    }
+
+    private ContactCountCache contactCountCache(int maxUsers, int maxFiltersPerUser, Duration ttl) {
+        ContactCountCache contactCountCache = new ContactCountCache();
+        ReflectionTestUtils.setField(contactCountCache, "enabled", true);
+        ReflectionTestUtils.setField(contactCountCache, "maxUsers", maxUsers);
+        ReflectionTestUtils.setField(contactCountCache, "maxFiltersPerUser", maxFiltersPerUser);
+        ReflectionTestUtils.setField(contactCountCache, "ttl", ttl);
+        ReflectionTestUtils.setField(contactCountCache, "meterRegistry", meterRegistry);
+        contactCountCache.registerMetrics();
+        return contactCountCache;
+    }
+}
@@ -0,0 +1,102 @@
+package yukinari.software.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
+import yukinari.software.entity.User;
+import yukinari.software.entity.UserSession;
+import yukinari.software.repository.MaintenanceLeaseRepository;
+import yukinari.software.repository.UserRepository;
+import yukinari.software.repository.UserSessionRepository;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {
+        "app.token-sweeper.interval=PT1H",
+        "app.token-sweeper.batch-size=3",
+        "app.token-sweeper.max-batches=2",
+        "app.token-sweeper.lease=PT1S"
+})
+class ExpiredTokenSweeperTest {
+
+    @Autowired
+    private ExpiredTokenSweeper expiredTokenSweeper;
+
+    @Autowired
+    private AutowireCapableBeanFactory beanFactory;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserSessionRepository userSessionRepository;
+
+    @Autowired
+    private MaintenanceLeaseRepository maintenanceLeaseRepository;
+
+    @BeforeEach
+    void setUp() {
+        maintenanceLeaseRepository.deleteAll();
+        userSessionRepository.deleteAll();
+        userRepository.deleteAll();
+
+        User user = new User();
+        user.setUsername("test");
+        user.setPassword("test");
+        user.setName("Test");
+        userRepository.save(user);
+    }
+
+    @Test
+    void deletesExpiredSessionsInBatches() {
+        addSessions("expired", 10, System.currentTimeMillis() - 1000);
+        addSessions("valid", 2, System.currentTimeMillis() + 1000000L);
+
+        //two batches of three per sweep
+        expiredTokenSweeper.sweep();
+        assertEquals(6, userSessionRepository.count());
+
+        expiredTokenSweeper.sweep();
+        assertEquals(2, userSessionRepository.count());
+        assertTrue(userSessionRepository.existsById("valid-0"));
+        assertTrue(userSessionRepository.existsById("valid-1"));
+    }
+
+    @Test
+    void onlyLeaseHolderSweeps() throws Exception {
+        ExpiredTokenSweeper other = beanFactory.createBean(ExpiredTokenSweeper.class);
+
+        addSessions("first", 2, System.currentTimeMillis() - 1000);
+        expiredTokenSweeper.sweep();
+        assertEquals(0, userSessionRepository.count());
+        assertEquals(owner(expiredTokenSweeper), maintenanceLeaseRepository.findById("expired-token-sweeper").orElseThrow().getOwner());
+
+        //the other node finds the lease taken and deletes nothing
+        addSessions("second", 2, System.currentTimeMillis() - 1000);
+        other.sweep();
+        assertEquals(2, userSessionRepository.count());
+
+        //once the lease has expired the other node takes it over
+        Thread.sleep(1100);
+        other.sweep();
+        assertEquals(0, userSessionRepository.count());
+        assertEquals(owner(other), maintenanceLeaseRepository.findById("expired-token-sweeper").orElseThrow().getOwner());
+
+        addSessions("third", 2, System.currentTimeMillis() - 1000);
+        expiredTokenSweeper.sweep();
+        assertEquals(2, userSessionRepository.count());
+    }
+
+    private void addSessions(String prefix, int count, long expiredAt) {
+        for (int i = 0; i < count; i++) {
+            userSessionRepository.save(new UserSession(prefix + "-" + i, "test", expiredAt));
+        }
+    }
+
+    private String owner(ExpiredTokenSweeper sweeper) {
+        return (String) ReflectionTestUtils.getField(sweeper, "owner");
+    }
+}
@@ -0,0 +1,61 @@
+package yukinari.software.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UsernameFilterTest {
+
+    @Test
+    void seenUsernamesMightBeTaken() {
+        UsernameFilter filter = filter(1000);
+
+        for (int i = 0; i < 1000; i++) {
+            filter.put("user" + i);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightBeTaken("user" + i));
+        }
+    }
+
+    @Test
+    void mostUnseenUsernamesAreFree() {
+        UsernameFilter filter = filter(1000);
+        for (int i = 0; i < 1000; i++) {
+            filter.put("user" + i);
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightBeTaken("other" + i)) {
+                falsePositives++;
+            }
+        }
+
+        //about 1% at the expected number of usernames
+        assertTrue(falsePositives < 300, falsePositives + " false positives");
+    }
+
+    @Test
+    void unloadedFilterLooksEveryUsernameUp() {
+        UsernameFilter filter = new UsernameFilter();
+        ReflectionTestUtils.setField(filter, "enabled", true);
+
+        filter.put("test");
+        assertTrue(filter.mightBeTaken("anything"));
+
+        ReflectionTestUtils.setField(filter, "enabled", false);
+        assertFalse(filter.mightBeTaken("anything"));
+    }
+
+    private UsernameFilter filter(int expectedUsernames) {
+        UsernameFilter filter = new UsernameFilter();
+        ReflectionTestUtils.setField(filter, "enabled", true);
+        ReflectionTestUtils.setField(filter, "bits", new AtomicLongArray(expectedUsernames * 10 / 64 + 1));
+        return filter;
+    }
+}